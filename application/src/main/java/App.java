@@ -4,30 +4,42 @@
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
 
-import com.google.gson.stream.JsonReader;
 import org.hyperledger.fabric.client.Contract;
 import org.hyperledger.fabric.client.Gateway;
 import org.hyperledger.fabric.client.GatewayException;
+import org.hyperledger.fabric.client.Network;
 import org.hyperledger.fabric.client.identity.Identities;
 import org.hyperledger.fabric.client.identity.Signers;
 import org.hyperledger.fabric.client.identity.X509Identity;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import io.grpc.ChannelCredentials;
-import io.grpc.Grpc;
-import io.grpc.ManagedChannel;
+import io.grpc.ClientInterceptors;
 import io.grpc.TlsChannelCredentials;
 
 public final class App {
@@ -41,11 +53,112 @@ public final class App {
 	private static final String PEER_ENDPOINT = "localhost:7051";
 	private static final String OVERRIDE_AUTH = "peer0.org1.example.com";
 
+	// Gateway peers of each org as host:port[=TLS authority], comma separated, see PeerPool. Org2 shares the pool of
+	// Org1 unless it has peers of its own.
+	private static final String PEER_ENDPOINTS_ORG1 = System.getenv().getOrDefault("PEER_ENDPOINTS_ORG1", PEER_ENDPOINT + "=" + OVERRIDE_AUTH);
+	private static final String PEER_STANDBY_ORG1 = System.getenv().getOrDefault("PEER_STANDBY_ORG1", "");
+	private static final String PEER_ENDPOINTS_ORG2 = System.getenv().getOrDefault("PEER_ENDPOINTS_ORG2", "");
+	private static final String PEER_STANDBY_ORG2 = System.getenv().getOrDefault("PEER_STANDBY_ORG2", "");
+
 	private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
+	// Evaluate cache: LRU bound and how long each cached function's results may be served without an event
+	private static final int EVALUATE_CACHE_SIZE = 10_000;
+	private static final Map<String, Duration> EVALUATE_CACHE_TTLS = Map.of(
+			"GetActualTracking", Duration.ofSeconds(30),
+			"GetHistory", Duration.ofSeconds(60));
+
+	// Snapshot of the local tracking view, to resume the chaincode events from after a restart
+	private static final Path TRACKING_VIEW_FILE = Paths.get(System.getenv().getOrDefault("TRACKING_VIEW_FILE", "tracking-view.json"));
+
+	// extraInfo payloads above the limit are kept off the ledger in a content-addressed store, see BlobStore
+	private static final BlobStore BLOB_STORE = new BlobStore(
+			Paths.get(System.getenv().getOrDefault("BLOB_STORE_DIR", "blobs")),
+			Integer.parseInt(System.getenv().getOrDefault("EXTRA_INFO_INLINE_LIMIT", "256")));
+
+	// Load generator defaults, see load()
+	private static final int DEFAULT_LOAD_TRANSACTIONS = 10_000;
+	private static final int DEFAULT_LOAD_WINDOW = 200;
+
+	// Bulk import defaults, see importManifest(); the chaincode takes at most 1000 plants per batch
+	private static final int DEFAULT_IMPORT_BATCH = 500;
+	private static final int DEFAULT_IMPORT_WINDOW = 8;
+
+	// Snapshot export and query defaults, see snapshot() and query()
+	private static final int DEFAULT_SNAPSHOT_PAGE = 1000;
+	private static final int DEFAULT_QUERY_LIMIT = 20;
+
+	// Peer pool exercise defaults, see peers(): two fast peers, a slow one, a down one and a standby
+	private static final String DEFAULT_PEER_LATENCIES = "5,5,60,x";
+	private static final String DEFAULT_PEER_STANDBY = "5";
+	private static final int DEFAULT_PEER_REQUESTS = 20_000;
+	private static final int DEFAULT_PEER_WINDOW = 32;
+
+	// Service mode defaults, see serve(); the threads only matter before Java 21, which has virtual threads
+	private static final int DEFAULT_SERVICE_PORT = 8080;
+	private static final int DEFAULT_SERVICE_THREADS = 200;
+	private static final int DEFAULT_BENCH_REQUESTS = 50_000;
+	private static final int DEFAULT_BENCH_CONCURRENCY = 1000;
+	private static final int DEFAULT_BENCH_KEYS = 100_000;
+
+	// History export defaults, see history()
+	private static final int DEFAULT_HISTORY_PAGE = 1000;
+	private static final int DEFAULT_SYNTHETIC_HISTORY = 100_000;
+
+	// Gateway call latencies by org, transaction and phase, written to the file in the Prometheus text format when set
+	private static final GatewayMetrics GATEWAY_METRICS = new GatewayMetrics();
+	private static final String GATEWAY_METRICS_FILE = System.getenv().getOrDefault("GATEWAY_METRICS_FILE", "");
+	private static final Duration GATEWAY_METRICS_INTERVAL = Duration.ofSeconds(
+			Long.parseLong(System.getenv().getOrDefault("GATEWAY_METRICS_INTERVAL_SECONDS", "15")));
+
+	// In-process gateway stand-in: endorsement latency, block cutting like the orderer's BatchTimeout/MaxMessageCount
+	private static final long LOCAL_ENDORSE_MILLIS = 20;
+	private static final long LOCAL_BLOCK_MILLIS = 2_000;
+	private static final int LOCAL_BLOCK_SIZE = 500;
+
 
 
 	public static void main(final String[] args) throws Exception {
+		boolean loadMode = args.length > 0 && "load".equals(args[0]);
+		boolean importMode = args.length > 1 && "import".equals(args[0]);
+		boolean snapshotMode = args.length > 1 && "snapshot".equals(args[0]);
+		boolean serveMode = args.length > 0 && "serve".equals(args[0]);
+		boolean historyMode = args.length > 1 && "history".equals(args[0]);
+		if (historyMode && hasOption(args, "--synthetic")) {
+			syntheticHistory(args);
+			return;
+		}
+		if (args.length > 1 && "query".equals(args[0])) {
+			query(args);
+			return;
+		}
+		if (args.length > 0 && "peers".equals(args[0])) {
+			peers(args);
+			return;
+		}
+		if ((loadMode || importMode) && hasOption(args, "--local")) {
+			try (LocalGateway gateway = new LocalGateway(LOCAL_ENDORSE_MILLIS, LOCAL_BLOCK_MILLIS, LOCAL_BLOCK_SIZE)) {
+				if (loadMode) {
+					load(gateway.getContract(), args);
+				} else {
+					importManifest(gateway.getContract(), args);
+				}
+			}
+			return;
+		}
+		if (serveMode && hasOption(args, "--local")) {
+			try (LocalGateway gateway = new LocalGateway(LOCAL_ENDORSE_MILLIS, LOCAL_BLOCK_MILLIS, LOCAL_BLOCK_SIZE)) {
+				if (hasOption(args, "--bench")) {
+					new ServiceLoad(intOption(args, "--requests", DEFAULT_BENCH_REQUESTS),
+							intOption(args, "--concurrency", DEFAULT_BENCH_CONCURRENCY),
+							intOption(args, "--keys", DEFAULT_BENCH_KEYS),
+							intOption(args, "--threads", DEFAULT_SERVICE_THREADS), System.out).run(gateway, BLOB_STORE);
+				} else {
+					serve(Map.of("org1", gateway.getContract(), "org2", gateway.getContract()), args);
+				}
+			}
+			return;
+		}
 		
 		ChannelCredentials credentials = TlsChannelCredentials.newBuilder()
 				.trustManager(PATH_TO_TEST_NETWORK.resolve(Paths.get(
@@ -53,11 +166,17 @@ public final class App {
 								"peers/peer0.org1.example.com/tls/ca.crt"))
 						.toFile())
 				.build();
-		// The gRPC client connection should be shared by all Gateway connections to
-		// this endpoint.
-		ManagedChannel channel = Grpc.newChannelBuilder(PEER_ENDPOINT, credentials)
-				.overrideAuthority(OVERRIDE_AUTH)
-				.build();
+		// The gRPC client connections should be shared by all Gateway connections to
+		// these endpoints.
+		PeerPool channel = PeerPool.connect(PEER_ENDPOINTS_ORG1, PEER_STANDBY_ORG1, credentials);
+		PeerPool channelOrg2 = PEER_ENDPOINTS_ORG2.isBlank()
+				? channel
+				: PeerPool.connect(PEER_ENDPOINTS_ORG2, PEER_STANDBY_ORG2, TlsChannelCredentials.newBuilder()
+						.trustManager(PATH_TO_TEST_NETWORK.resolve(Paths.get(
+								"organizations/peerOrganizations/org2.example.com/" +
+										"peers/peer0.org2.example.com/tls/ca.crt"))
+								.toFile())
+						.build());
 		
 		Gateway.Builder builderOrg1 = Gateway.newInstance()
 				.identity(new X509Identity("Org1MSP",
@@ -84,7 +203,7 @@ public final class App {
 						)
 					)
 				)
-				.connection(channel)
+				.connection(ClientInterceptors.intercept(channel, GATEWAY_METRICS.interceptor("org1")))
 				// Default timeouts for different gRPC calls
 				.evaluateOptions(options -> options.withDeadlineAfter(5, TimeUnit.SECONDS))
 				.endorseOptions(options -> options.withDeadlineAfter(15, TimeUnit.SECONDS))
@@ -101,15 +220,20 @@ public final class App {
 						.list(PATH_TO_TEST_NETWORK.resolve(Paths
 								.get("organizations/peerOrganizations/org2.example.com/users/User1@org2.example.com/msp/keystore")))
 						.findFirst().orElseThrow()))))
-				.connection(channel)
+				.connection(ClientInterceptors.intercept(channelOrg2, GATEWAY_METRICS.interceptor("org2")))
 				.evaluateOptions(options -> options.withDeadlineAfter(5, TimeUnit.SECONDS))
 				.endorseOptions(options -> options.withDeadlineAfter(15, TimeUnit.SECONDS))
 				.submitOptions(options -> options.withDeadlineAfter(5, TimeUnit.SECONDS))
 				.commitStatusOptions(options -> options.withDeadlineAfter(1, TimeUnit.MINUTES));
 		Scanner scanner = new Scanner(System.in);
+		if (!GATEWAY_METRICS_FILE.isEmpty()) {
+			GATEWAY_METRICS.dumpEvery(Paths.get(GATEWAY_METRICS_FILE), GATEWAY_METRICS_INTERVAL);
+		}
 
 		try (Gateway gatewayOrg1 = builderOrg1.connect();
-				Gateway gatewayOrg2 = builderOrg2.connect()) {
+				Gateway gatewayOrg2 = builderOrg2.connect();
+				TrackingEventListener trackingEvents = new TrackingEventListener(
+						gatewayOrg1.getNetwork(CHANNEL_NAME), CHAINCODE_NAME, TRACKING_VIEW_FILE)) {
 			
 			Contract contractOrg1 = gatewayOrg1
 				.getNetwork(CHANNEL_NAME)
@@ -119,11 +243,42 @@ public final class App {
 				.getNetwork(CHANNEL_NAME)
 				.getContract(CHAINCODE_NAME);
 
+			if (loadMode) {
+				load(contractOrg1, args);
+				return;
+			}
+			if (importMode) {
+				importManifest(contractOrg1, args);
+				return;
+			}
+			if (snapshotMode) {
+				snapshot(gatewayOrg1.getNetwork(CHANNEL_NAME), args);
+				return;
+			}
+			if (historyMode) {
+				history(contractOrg1, args);
+				return;
+			}
+
+			// repeated reads of the same plants are served from a cache that the committed events invalidate
+			CachingContract cachedOrg1 = new CachingContract(contractOrg1, EVALUATE_CACHE_SIZE, EVALUATE_CACHE_TTLS);
+			CachingContract cachedOrg2 = new CachingContract(contractOrg2, EVALUATE_CACHE_SIZE, EVALUATE_CACHE_TTLS);
+			trackingEvents.onChange(cachedOrg1::invalidate).onChange(cachedOrg2::invalidate);
+
+			// current state is served from the chaincode events instead of an evaluate round trip per lookup
+			trackingEvents.start();
+
+			if (serveMode) {
+				serve(Map.of("org1", cachedOrg1, "org2", cachedOrg2), args);
+				return;
+			}
 
 			//ORGS
 			Map<String, Contract> ORGS = new HashMap<>();
-			ORGS.put("Pittaluga & fratelli", contractOrg1);
-			ORGS.put("Supermarket", contractOrg2);
+			ORGS.put("Pittaluga & fratelli", cachedOrg1);
+			ORGS.put("Supermarket", cachedOrg2);
+			Map<String, CachingContract> CACHES = Map.of("Pittaluga & fratelli", cachedOrg1, "Supermarket", cachedOrg2);
+			Map<String, PeerPool> PEERS = Map.of("Pittaluga & fratelli", channel, "Supermarket", channelOrg2);
 
 
 			//Transactions
@@ -131,13 +286,26 @@ public final class App {
 			PF_TRANSACTIONS.put("CreateTracking","Create a new plant tracking");
 			PF_TRANSACTIONS.put("StopTracking","Delete a plant tracking");
 			PF_TRANSACTIONS.put("UpdateTracking","Update the actual state of a plant");
+			PF_TRANSACTIONS.put("UpdatePosition","Record a new position of a plant (conflict free)");
 			PF_TRANSACTIONS.put("GetActualTracking","Get the actual state of the plant");
 			PF_TRANSACTIONS.put("GetHistory","Get the history of a plant");
+			PF_TRANSACTIONS.put("GetTrackSummary","Get the distance and dwell times of a plant");
 			PF_TRANSACTIONS.put("TransferTracking","Transfer ownership of a plant");
+			PF_TRANSACTIONS.put("CacheStats","Show the evaluate cache counters");
+			PF_TRANSACTIONS.put("PeerStats","Show the state of the gateway peers");
+			PF_TRANSACTIONS.put("GatewayStats","Show the gateway call latencies by phase");
+			PF_TRANSACTIONS.put("GetStatistics","Count the tracked plants by owner");
+			PF_TRANSACTIONS.put("GetExtraInfo","Get the extraInfo of a plant, fetched from the blob store if needed");
 
 			Map<String, String> S_TRANSACTIONS = new HashMap<>();
 			S_TRANSACTIONS.put("StopTracking","Delete a plant tracking");
 			S_TRANSACTIONS.put("GetHistory","Get the history of a plant");
+			S_TRANSACTIONS.put("GetTrackSummary","Get the distance and dwell times of a plant");
+			S_TRANSACTIONS.put("CacheStats","Show the evaluate cache counters");
+			S_TRANSACTIONS.put("PeerStats","Show the state of the gateway peers");
+			S_TRANSACTIONS.put("GatewayStats","Show the gateway call latencies by phase");
+			S_TRANSACTIONS.put("GetStatistics","Count the tracked plants by owner");
+			S_TRANSACTIONS.put("GetExtraInfo","Get the extraInfo of a plant, fetched from the blob store if needed");
 
 
 			while (true) {
@@ -159,6 +327,32 @@ public final class App {
 					}
 					byte[] result;
 
+					if ("CacheStats".equals(txKey)) {
+						System.out.println("Evaluate cache -> " + CACHES.get(orgName).stats());
+						continue;
+					}
+					if ("PeerStats".equals(txKey)) {
+						System.out.print("Gateway peers ->\n" + PEERS.get(orgName).stats());
+						continue;
+					}
+					if ("GatewayStats".equals(txKey)) {
+						System.out.print("Gateway calls ->\n" + GATEWAY_METRICS.summary());
+						continue;
+					}
+					if ("GetStatistics".equals(txKey)) {
+						System.out.println("Result -> " + prettyJson(orgContract.evaluateTransaction(txKey)));
+						continue;
+					}
+					if ("GetExtraInfo".equals(txKey)) {
+						System.out.print("Insert qr code: ");
+						String infoQr = scanner.next();
+						JsonObject actual = JsonParser.parseString(new String(
+								orgContract.evaluateTransaction("GetActualTracking", infoQr), StandardCharsets.UTF_8))
+								.getAsJsonObject();
+						JsonElement storedInfo = actual.getAsJsonObject("Basil").get("extraInfo");
+						System.out.println("Result -> " + (storedInfo.isJsonNull() ? null : BLOB_STORE.resolve(storedInfo.getAsString())));
+						continue;
+					}
 					System.out.println(String.format("Please follow below steps to complete transaction: %s",txName));
 					switch (orgName){
 						case "Pittaluga & fratelli":
@@ -170,7 +364,7 @@ public final class App {
 									String extraInfo = scanner.next();
 									System.out.print("Insert gpsPosition: ");
 									String gpsPosition = scanner.next();
-									result = orgContract.submitTransaction(txKey, newQr, extraInfo, gpsPosition);
+									result = orgContract.submitTransaction(txKey, newQr, BLOB_STORE.externalize(extraInfo), gpsPosition);
 									System.out.println("Result -> " + new String(result));
 									break;
 								case "StopTracking":
@@ -187,16 +381,36 @@ public final class App {
 									result = orgContract.submitTransaction(txKey, existingQr, gpsPositionUpdate);
 									System.out.println("Result -> " + new String(result));
 									break;
+								case "UpdatePosition":
+									System.out.print("Insert qr code: ");
+									String movingQr = scanner.next();
+									System.out.print("Insert new gpsPosition: ");
+									String newPosition = scanner.next();
+									result = orgContract.submitTransaction(txKey, movingQr, newPosition);
+									System.out.println("Result -> " + new String(result));
+									break;
 								case "GetActualTracking":
 									System.out.print("Insert qr code: ");
 									String qrActual = scanner.next();
+									TrackingView.Plant plant = trackingEvents.getView().get(qrActual);
+									if (plant != null) {
+										System.out.println("Result (local view, block " + plant.blockNumber + ") -> " + prettyJson(plant.toJson()));
+										break;
+									}
 									result = orgContract.evaluateTransaction(txKey, qrActual);
-									System.out.println("Result -> " + new String(result));
+									System.out.println("Result -> " + prettyJson(result));
 									break;
 								case "GetHistory":
 									System.out.print("Insert qr code: ");
 									String qr = scanner.next();
 									result = orgContract.evaluateTransaction(txKey, qr);
+									System.out.print("Result -> ");
+									printHistory(result);
+									break;
+								case "GetTrackSummary":
+									System.out.print("Insert qr code: ");
+									String summaryQr = scanner.next();
+									result = orgContract.evaluateTransaction(txKey, summaryQr);
 									System.out.println("Result -> " + prettyJson(result));
 									break;
 								case "TransferTracking":
@@ -226,6 +440,13 @@ public final class App {
 									System.out.print("Insert qr code: ");
 									String qr = scanner.next();
 									result = orgContract.evaluateTransaction(txKey, qr);
+									System.out.print("result = ");
+									printHistory(result);
+									break;
+								case "GetTrackSummary":
+									System.out.print("Insert qr code: ");
+									String summaryQr = scanner.next();
+									result = orgContract.evaluateTransaction(txKey, summaryQr);
 									System.out.println("result = " + prettyJson(result));
 									break;
 							}
@@ -237,11 +458,204 @@ public final class App {
 				}
 			}
 		} finally {
-			channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+			GATEWAY_METRICS.close();
+			channel.close();
+			if (channelOrg2 != channel) {
+				channelOrg2.close();
+			}
 			scanner.close();
 		}
 	}
 
+	/**
+	 * Load generator mode: {@code load [--local] [--transactions N] [--window W] [--hot-keys K]}. With
+	 * {@code --local} it runs against the in-process {@link LocalGateway} instead of the test network, with
+	 * {@code --hot-keys} it updates K plants concurrently instead of creating new ones.
+	 */
+	private static void load(final Contract contract, final String[] args) throws InterruptedException {
+		int transactions = intOption(args, "--transactions", DEFAULT_LOAD_TRANSACTIONS);
+		int window = intOption(args, "--window", DEFAULT_LOAD_WINDOW);
+		int hotKeys = intOption(args, "--hot-keys", 0);
+		new LoadGenerator(contract, transactions, window, hotKeys, System.out).run();
+	}
+
+	/**
+	 * Bulk import mode: {@code import <manifest> [--local] [--batch N] [--window W]}, see {@link BulkImporter}.
+	 * Running it again after a crash resumes from the manifest's checkpoint file.
+	 */
+	private static void importManifest(final Contract contract, final String[] args)
+			throws IOException, InterruptedException {
+		int batch = Math.min(intOption(args, "--batch", DEFAULT_IMPORT_BATCH), 1000);
+		int window = intOption(args, "--window", DEFAULT_IMPORT_WINDOW);
+		new BulkImporter(contract, Paths.get(args[1]), batch, window, BLOB_STORE, System.out).run();
+	}
+
+	/**
+	 * Snapshot mode: {@code snapshot <file> [--page N]}. Exports all plants to a {@link ColumnarSnapshot} file, or
+	 * brings an existing one up to date with the blocks committed since, see {@link SnapshotExporter}.
+	 */
+	private static void snapshot(final Network network, final String[] args)
+			throws IOException, GatewayException, InterruptedException {
+		int pageSize = intOption(args, "--page", DEFAULT_SNAPSHOT_PAGE);
+		new SnapshotExporter(network, CHAINCODE_NAME, Paths.get(args[1]), pageSize, System.out).run();
+	}
+
+	/**
+	 * Offline query mode: {@code query <file> [--owner O] [--from S] [--to S] [--bbox minLat,minLon,maxLat,maxLon]
+	 * [--threads N] [--limit N]}, with the times in epoch seconds, see {@link SnapshotQuery}.
+	 */
+	private static void query(final String[] args) throws IOException, InterruptedException {
+		try (ColumnarSnapshot snapshot = ColumnarSnapshot.open(Paths.get(args[1]))) {
+			SnapshotQuery query = new SnapshotQuery(snapshot)
+					.owner(stringOption(args, "--owner", null))
+					.between(Long.parseLong(stringOption(args, "--from", Long.toString(Long.MIN_VALUE))),
+							Long.parseLong(stringOption(args, "--to", Long.toString(Long.MAX_VALUE))));
+			String boundingBox = stringOption(args, "--bbox", null);
+			if (boundingBox != null) {
+				String[] corners = boundingBox.split(",");
+				query.inside(Double.parseDouble(corners[0]), Double.parseDouble(corners[1]),
+						Double.parseDouble(corners[2]), Double.parseDouble(corners[3]));
+			}
+			int threads = intOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+
+			long start = System.nanoTime();
+			List<ColumnarSnapshot.Row> rows = query.run(threads);
+			long elapsed = System.nanoTime() - start;
+			SnapshotQuery.print(rows, intOption(args, "--limit", DEFAULT_QUERY_LIMIT), System.out);
+			System.out.printf("%d of %d plants as of block %d, %s on %d threads in %.1fms%n", rows.size(),
+					snapshot.getRowCount(), snapshot.getCheckpointBlock() - 1, query.stats(), threads, elapsed / 1e6);
+		}
+	}
+
+	/**
+	 * Peer pool exercise: {@code peers [--latencies L,L,...] [--standby L,...] [--requests N] [--window W]}, with each
+	 * peer given by its latency in milliseconds or {@code x} for one that is down. Runs against in-process stand-ins,
+	 * see {@link PeerPoolLoad}.
+	 */
+	private static void peers(final String[] args) throws IOException, InterruptedException {
+		List<String> latencies = List.of(stringOption(args, "--latencies", DEFAULT_PEER_LATENCIES).split(","));
+		String standby = stringOption(args, "--standby", DEFAULT_PEER_STANDBY);
+		int requests = intOption(args, "--requests", DEFAULT_PEER_REQUESTS);
+		int window = intOption(args, "--window", DEFAULT_PEER_WINDOW);
+		new PeerPoolLoad(latencies, standby.isBlank() ? List.of() : List.of(standby.split(",")), requests, window,
+				System.out).run();
+	}
+
+	/**
+	 * Service mode: {@code serve [--local] [--bind ADDRESS] [--port P] [--threads N]}, see {@link LedgerService},
+	 * until the process is stopped. It listens on the loopback address unless {@code --bind} says otherwise; the
+	 * service does not authenticate its callers. With {@code --local --bench [--requests N] [--concurrency C] [--keys K]} it measures the service
+	 * against the in-process {@link LocalGateway} instead, see {@link ServiceLoad}.
+	 */
+	private static void serve(final Map<String, Contract> contracts, final String[] args)
+			throws IOException, InterruptedException {
+		String bind = stringOption(args, "--bind", "");
+		LedgerService service = new LedgerService(contracts, BLOB_STORE,
+				bind.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind),
+				intOption(args, "--port", DEFAULT_SERVICE_PORT), intOption(args, "--threads", DEFAULT_SERVICE_THREADS));
+		service.start();
+		System.out.printf("Serving %s on %s%n", contracts.keySet(), service.getAddress());
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			System.out.println("Service " + service.stats());
+			try {
+				service.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		Thread.currentThread().join();
+	}
+
+	/**
+	 * History export mode: {@code history <qr> [--out file.ndjson] [--page N]}. Streams the history of a plant page by
+	 * page, to the console or as NDJSON, see {@link HistoryRenderer}.
+	 */
+	private static void history(final Contract contract, final String[] args) throws IOException, GatewayException {
+		String file = stringOption(args, "--out", null);
+		int pageSize = intOption(args, "--page", DEFAULT_HISTORY_PAGE);
+		Writer out = file == null
+				? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+				: Files.newBufferedWriter(Paths.get(file));
+		try {
+			long entries = HistoryRenderer.export(contract, args[1], pageSize, new HistoryRenderer(out, file != null));
+			if (file != null) {
+				System.out.printf("Wrote %d history entries of %s to %s%n", entries, args[1], file);
+			}
+		} finally {
+			if (file != null) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Synthetic history mode: {@code history --synthetic N [--out file.ndjson] [--tree]}. Renders a generated history
+	 * of N entries as NDJSON and reports the peak heap; {@code --tree} renders it the former way, through a parsed
+	 * tree, for comparison. Run it with a small {@code -Xmx} to see the difference.
+	 */
+	private static void syntheticHistory(final String[] args) throws IOException {
+		int entries = intOption(args, "--synthetic", DEFAULT_SYNTHETIC_HISTORY);
+		String file = stringOption(args, "--out", null);
+		List<MemoryPoolMXBean> heap = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heap.add(pool);
+			}
+		}
+
+		long start = System.nanoTime();
+		long written;
+		try (Writer out = file == null ? Writer.nullWriter() : Files.newBufferedWriter(Paths.get(file))) {
+			if (hasOption(args, "--tree")) {
+				out.write(gson.toJson(JsonParser.parseReader(HistoryRenderer.synthetic(entries))));
+				written = entries;
+			} else {
+				HistoryRenderer renderer = new HistoryRenderer(out, true);
+				renderer.render(HistoryRenderer.synthetic(entries));
+				renderer.finish();
+				written = renderer.getEntries();
+			}
+		}
+		long peak = heap.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+		System.out.printf("Rendered %d entries in %.2fs, peak heap %d MB%n", written, (System.nanoTime() - start) / 1e9,
+				peak >> 20);
+	}
+
+	private static void printHistory(final byte[] history) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		HistoryRenderer renderer = new HistoryRenderer(out, false);
+		renderer.render(history);
+		renderer.finish();
+	}
+
+	private static boolean hasOption(final String[] args, final String name) {
+		for (String arg : args) {
+			if (arg.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int intOption(final String[] args, final String name, final int defaultValue) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals(name)) {
+				return Integer.parseInt(args[i + 1]);
+			}
+		}
+		return defaultValue;
+	}
+
+	private static String stringOption(final String[] args, final String name, final String defaultValue) {
+		for (int i = 0; i < args.length - 1; i++) {
+			if (args[i].equals(name)) {
+				return args[i + 1];
+			}
+		}
+		return defaultValue;
+	}
+
 	private static String getOrgIndex(String[] ORGS, Scanner scanner) {
 		System.out.println("Choose an organization: ");
 		for (int i = 0; i < ORGS.length; i++) {
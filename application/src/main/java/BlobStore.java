@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed store for large {@code extraInfo} payloads, kept off the ledger.
+ * <p>
+ * The basil record is rewritten by every update and transfer, so an inline payload is copied into the write set and
+ * the ledger each time. Payloads longer than {@code inlineLimit} bytes are stored here under their SHA-256 instead,
+ * and the record only holds a reference {@code blob:sha256:<hex>:<size>}. References are resolved lazily, when the
+ * payload is actually needed, and the bytes read back are checked against both the size and the hash.
+ * <p>
+ * This is a local stand-in: blobs are files named after their hash in a directory, written atomically. Since the
+ * name is the content, writing the same payload twice is a no-op and a blob never changes once written.
+ */
+final class BlobStore {
+
+	static final String REFERENCE_PREFIX = "blob:sha256:";
+
+	private static final Pattern REFERENCE = Pattern.compile("blob:sha256:([0-9a-f]{64}):([0-9]+)");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Path directory;
+	private final int inlineLimit;
+
+	BlobStore(final Path directory, final int inlineLimit) {
+		this.directory = directory;
+		this.inlineLimit = inlineLimit;
+	}
+
+	/**
+	 * @return the payload itself if it is small enough to stay inline, otherwise the reference to the stored blob
+	 */
+	String externalize(final String extraInfo) throws IOException {
+		if (extraInfo == null) {
+			return null;
+		}
+		byte[] content = extraInfo.getBytes(StandardCharsets.UTF_8);
+		if (content.length <= inlineLimit) {
+			return extraInfo;
+		}
+		String hash = sha256(content);
+		Path file = file(hash);
+		if (!Files.exists(file)) {
+			Files.createDirectories(file.getParent());
+			Path temporary = Files.createTempFile(file.getParent(), hash, ".tmp");
+			Files.write(temporary, content);
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		return REFERENCE_PREFIX + hash + ':' + content.length;
+	}
+
+	/**
+	 * @return the payload a reference stands for, or the value itself if it is an inline payload
+	 * @throws IOException if the blob is missing or its content does not match the reference
+	 */
+	String resolve(final String extraInfo) throws IOException {
+		if (!isReference(extraInfo)) {
+			return extraInfo;
+		}
+		Matcher reference = REFERENCE.matcher(extraInfo);
+		if (!reference.matches()) {
+			throw new IOException("Malformed blob reference " + extraInfo);
+		}
+		String hash = reference.group(1);
+		long size = Long.parseLong(reference.group(2));
+
+		Path file = file(hash);
+		if (!Files.exists(file)) {
+			throw new IOException("Blob " + hash + " is not in the store " + directory);
+		}
+		if (Files.size(file) != size) {
+			throw new IOException(String.format("Blob %s has %d bytes, the reference says %d", hash, Files.size(file), size));
+		}
+		byte[] content = Files.readAllBytes(file);
+		if (!sha256(content).equals(hash)) {
+			throw new IOException("Blob " + hash + " does not match its hash");
+		}
+		return new String(content, StandardCharsets.UTF_8);
+	}
+
+	static boolean isReference(final String extraInfo) {
+		return extraInfo != null && extraInfo.startsWith(REFERENCE_PREFIX);
+	}
+
+	private Path file(final String hash) {
+		// two levels, so that no directory ends up with millions of entries
+		return directory.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	private static String sha256(final byte[] content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required of every Java platform", e);
+		}
+		byte[] hash = digest.digest(content);
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+			hex[2 * i + 1] = HEX[hash[i] & 0xF];
+		}
+		return new String(hex);
+	}
+}
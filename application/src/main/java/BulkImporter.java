@@ -0,0 +1,251 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hyperledger.fabric.client.Contract;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Non-interactive import of a plant manifest with {@code CreateTrackingBatch}.
+ * <p>
+ * The manifest is streamed line by line, so memory stays constant whatever its size. It is either CSV with a
+ * {@code qr,extraInfo,gpsPosition} header (fields containing commas, like the position, in double quotes) or, for
+ * {@code .ndjson}/{@code .jsonl} files, one {@code {"qr","extraInfo","gpsPosition"}} object per line. Rows are
+ * grouped into batches that are submitted through a {@link SubmissionEngine}, several in flight. Large
+ * {@code extraInfo} payloads are put in the {@link BlobStore} and submitted as references.
+ * <p>
+ * Progress is checkpointed to {@code <manifest>.checkpoint} as the number of manifest lines whose batches have all
+ * committed, and an import that is started again resumes after them. Batches complete out of order, so the
+ * checkpoint only moves over a contiguous run of committed batches and stops in front of a batch that failed;
+ * rows replayed after a crash are reported as already existing by the chaincode rather than created twice.
+ */
+final class BulkImporter {
+
+	private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Contract contract;
+	private final Path manifest;
+	private final Path checkpointFile;
+	private final int batchSize;
+	private final int window;
+	private final BlobStore blobs;
+	private final PrintStream out;
+
+	private final LongAdder created = new LongAdder();
+	private final LongAdder alreadyExisting = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder failedBatches = new LongAdder();
+
+	// batch sequence -> last manifest line of the batch, negative while the batch failed
+	private final Map<Long, Long> completed = new HashMap<>();
+	private long nextToCheckpoint;
+	private long committedLines;
+	private boolean checkpointBlocked;
+
+	BulkImporter(final Contract contract, final Path manifest, final int batchSize, final int window,
+			final BlobStore blobs, final PrintStream out) {
+		this.contract = contract;
+		this.manifest = manifest;
+		this.checkpointFile = manifest.resolveSibling(manifest.getFileName() + ".checkpoint");
+		this.batchSize = batchSize;
+		this.window = window;
+		this.blobs = blobs;
+		this.out = out;
+	}
+
+	void run() throws IOException, InterruptedException {
+		long resumeAfter = readCheckpoint();
+		committedLines = resumeAfter;
+		boolean ndjson = isNdjson(manifest);
+		if (resumeAfter > 0) {
+			out.printf("Resuming %s after line %d%n", manifest, resumeAfter);
+		}
+
+		long start = System.nanoTime();
+		long lastReport = start;
+		long rows = 0;
+		long sequence = 0;
+		try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+				SubmissionEngine engine = new SubmissionEngine(contract, window)) {
+			long lineNumber = 0;
+			String[] header = null;
+			JsonArray batch = new JsonArray();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (!ndjson && header == null) {
+					header = parseCsvLine(line).toArray(new String[0]);
+					continue;
+				}
+				if (lineNumber <= resumeAfter || line.isBlank()) {
+					continue;
+				}
+
+				JsonObject row = ndjson ? JsonParser.parseString(line).getAsJsonObject() : csvRow(header, line, lineNumber);
+				JsonElement extraInfo = row.get("extraInfo");
+				if (extraInfo != null && !extraInfo.isJsonNull()) {
+					// the chaincode takes a JSON extraInfo as its text
+					row.addProperty("extraInfo", blobs.externalize(
+							extraInfo.isJsonPrimitive() ? extraInfo.getAsString() : extraInfo.toString()));
+				}
+				batch.add(row);
+				rows++;
+				if (batch.size() == batchSize) {
+					submit(engine, sequence++, batch, lineNumber);
+					batch = new JsonArray();
+				}
+
+				long now = System.nanoTime();
+				if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+					report(rows, now - start);
+					writeCheckpoint();
+					lastReport = now;
+				}
+			}
+			if (batch.size() > 0) {
+				submit(engine, sequence++, batch, lineNumber);
+			}
+			engine.close();
+		}
+		writeCheckpoint();
+
+		long elapsed = System.nanoTime() - start;
+		out.printf(Locale.ROOT, "Imported %d rows in %.2fs: %.1f rows/s%n", rows, elapsed / 1e9, rows * 1e9 / elapsed);
+		out.printf("Created %d, already existing %d, rejected %d, failed batches %d; checkpoint at line %d%n",
+				created.sum(), alreadyExisting.sum(), rejected.sum(), failedBatches.sum(), committedLines);
+	}
+
+	private void submit(final SubmissionEngine engine, final long sequence, final JsonArray batch, final long lastLine)
+			throws InterruptedException {
+		int size = batch.size();
+		engine.submit("CreateTrackingBatch", batch.toString()).whenComplete((result, error) -> {
+			if (error != null) {
+				failedBatches.increment();
+				out.printf("Batch ending at line %d failed: %s%n", lastLine, error.getMessage());
+			} else {
+				count(result, size);
+			}
+			batchCompleted(sequence, error == null ? lastLine : -1);
+		});
+	}
+
+	private void count(final byte[] result, final int size) {
+		String json = new String(result, StandardCharsets.UTF_8);
+		if (!json.startsWith("{")) {
+			// a stand-in without chaincode
+			created.add(size);
+			return;
+		}
+		for (JsonElement item : JsonParser.parseString(json).getAsJsonObject().getAsJsonArray("results")) {
+			String status = item.getAsJsonObject().get("status").getAsString();
+			if ("OK".equals(status)) {
+				created.increment();
+			} else if ("BASIL_ALREADY_EXISTS".equals(status)) {
+				alreadyExisting.increment();
+			} else {
+				rejected.increment();
+			}
+		}
+	}
+
+	private synchronized void batchCompleted(final long sequence, final long lastLine) {
+		completed.put(sequence, lastLine);
+		while (!checkpointBlocked && completed.containsKey(nextToCheckpoint)) {
+			long line = completed.remove(nextToCheckpoint);
+			if (line < 0) {
+				checkpointBlocked = true;
+				break;
+			}
+			committedLines = line;
+			nextToCheckpoint++;
+		}
+	}
+
+	private void report(final long rows, final long elapsedNanos) {
+		out.printf(Locale.ROOT, "  %6.1fs  %8d rows read  %8.1f rows/s  created %d  existing %d  rejected %d%n",
+				elapsedNanos / 1e9, rows, rows * 1e9 / elapsedNanos, created.sum(), alreadyExisting.sum(),
+				rejected.sum());
+	}
+
+	private long readCheckpoint() throws IOException {
+		if (!Files.exists(checkpointFile)) {
+			return 0;
+		}
+		String content = Files.readString(checkpointFile, StandardCharsets.UTF_8).trim();
+		return content.isEmpty() ? 0 : Long.parseLong(content);
+	}
+
+	private void writeCheckpoint() throws IOException {
+		long lines;
+		synchronized (this) {
+			lines = committedLines;
+		}
+		Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+		Files.writeString(temporary, Long.toString(lines), StandardCharsets.UTF_8);
+		Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static boolean isNdjson(final Path file) {
+		String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+		return name.endsWith(".ndjson") || name.endsWith(".jsonl");
+	}
+
+	private static JsonObject csvRow(final String[] header, final String line, final long lineNumber) {
+		List<String> fields = parseCsvLine(line);
+		if (fields.size() != header.length) {
+			throw new IllegalArgumentException(String.format("Line %d has %d fields, expected %d",
+					lineNumber, fields.size(), header.length));
+		}
+		JsonObject row = new JsonObject();
+		for (int i = 0; i < header.length; i++) {
+			row.addProperty(header[i].trim(), fields.get(i));
+		}
+		return row;
+	}
+
+	/**
+	 * Splits a CSV line; fields may be double quoted, with {@code ""} for a quote inside.
+	 */
+	static List<String> parseCsvLine(final String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
@@ -0,0 +1,416 @@
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+import org.hyperledger.fabric.client.CommitException;
+import org.hyperledger.fabric.client.CommitStatusException;
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.EndorseException;
+import org.hyperledger.fabric.client.GatewayException;
+import org.hyperledger.fabric.client.Proposal;
+import org.hyperledger.fabric.client.Status;
+import org.hyperledger.fabric.client.SubmitException;
+import org.hyperledger.fabric.client.SubmittedTransaction;
+import org.hyperledger.fabric.client.Transaction;
+
+import io.grpc.CallOptions;
+
+/**
+ * {@link Contract} that caches the results of read-only transactions about a single plant.
+ * <p>
+ * Only the functions given a TTL are cached, keyed by function and arguments; their first argument is the qr the
+ * result depends on. The cache holds at most {@code maxEntries} results and evicts the least recently used one.
+ * Entries are dropped when the TTL expires, when {@link #invalidate} is called for their qr (from the committed
+ * chaincode events, see {@link TrackingEventListener}) and when a transaction about the qr is submitted through
+ * this contract: once {@code submitTransaction} returns, or for a proposal from {@link #newProposal} once its
+ * {@code submit} returns or the commit status of its {@code submitAsync} is known. A result evaluated while its qr was invalidated is not cached, so a slow evaluate cannot put back
+ * a value that is already stale.
+ */
+final class CachingContract implements Contract {
+
+	private final Contract delegate;
+	private final int maxEntries;
+	private final Map<String, Duration> ttls;
+
+	private final LinkedHashMap<String, CachedResult> entries;
+	private final Map<String, Set<String>> keysByQr = new HashMap<>();
+	// invalidation counts by hash of the qr; bounded, a collision only skips caching one result
+	private final long[] invalidations = new long[1024];
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder invalidated = new LongAdder();
+
+	private static final class CachedResult {
+		final String qr;
+		final byte[] value;
+		final long expiresAt;
+
+		CachedResult(final String qr, final byte[] value, final long expiresAt) {
+			this.qr = qr;
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * @param ttls the cached functions and how long their results may be served
+	 */
+	CachingContract(final Contract delegate, final int maxEntries, final Map<String, Duration> ttls) {
+		this.delegate = delegate;
+		this.maxEntries = maxEntries;
+		this.ttls = Map.copyOf(ttls);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CachedResult> eldest) {
+				if (size() <= CachingContract.this.maxEntries) {
+					return false;
+				}
+				unindex(eldest.getKey(), eldest.getValue().qr);
+				evictions.increment();
+				return true;
+			}
+		};
+	}
+
+	@Override
+	public byte[] evaluateTransaction(final String name, final String... args) throws GatewayException {
+		Duration ttl = ttls.get(name);
+		if (ttl == null || args.length == 0) {
+			return delegate.evaluateTransaction(name, args);
+		}
+		String qr = args[0];
+		String key = name + '\u0000' + String.join("\u0000", args);
+
+		long generation;
+		synchronized (this) {
+			CachedResult entry = entries.get(key);
+			if (entry != null) {
+				if (System.nanoTime() - entry.expiresAt < 0) {
+					hits.increment();
+					return entry.value.clone();
+				}
+				entries.remove(key);
+				unindex(key, qr);
+				expirations.increment();
+			}
+			misses.increment();
+			generation = invalidations[stripe(qr)];
+		}
+
+		byte[] value = delegate.evaluateTransaction(name, args);
+
+		synchronized (this) {
+			if (invalidations[stripe(qr)] == generation) {
+				entries.put(key, new CachedResult(qr, value.clone(), System.nanoTime() + ttl.toNanos()));
+				keysByQr.computeIfAbsent(qr, q -> new HashSet<>()).add(key);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Drops the cached results about the plant.
+	 */
+	synchronized void invalidate(final String qr) {
+		invalidations[stripe(qr)]++;
+		Set<String> keys = keysByQr.remove(qr);
+		if (keys != null) {
+			for (String key : keys) {
+				if (entries.remove(key) != null) {
+					invalidated.increment();
+				}
+			}
+		}
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return e.g. {@code entries=12/1000 hits=340 misses=25 hitRatio=93.2% evictions=0 expirations=3 invalidations=9}
+	 */
+	String stats() {
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		long lookups = hitCount + missCount;
+		return String.format(Locale.ROOT, "entries=%d/%d hits=%d misses=%d hitRatio=%.1f%% evictions=%d expirations=%d invalidations=%d",
+				size(), maxEntries, hitCount, missCount, lookups == 0 ? 0 : 100.0 * hitCount / lookups,
+				evictions.sum(), expirations.sum(), invalidated.sum());
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	long getEvictions() {
+		return evictions.sum();
+	}
+
+	private int stripe(final String qr) {
+		return qr.hashCode() & (invalidations.length - 1);
+	}
+
+	private void unindex(final String key, final String qr) {
+		Set<String> keys = keysByQr.get(qr);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				keysByQr.remove(qr);
+			}
+		}
+	}
+
+	@Override
+	public byte[] submitTransaction(final String name, final String... args) throws EndorseException,
+			SubmitException, CommitStatusException, CommitException {
+		try {
+			return delegate.submitTransaction(name, args);
+		} finally {
+			if (args.length > 0) {
+				invalidate(args[0]);
+			}
+		}
+	}
+
+	@Override
+	public String getChaincodeName() {
+		return delegate.getChaincodeName();
+	}
+
+	@Override
+	public Optional<String> getContractName() {
+		return delegate.getContractName();
+	}
+
+	@Override
+	public byte[] submitTransaction(final String name) throws EndorseException, SubmitException,
+			CommitStatusException, CommitException {
+		return delegate.submitTransaction(name);
+	}
+
+	@Override
+	public byte[] submitTransaction(final String name, final byte[]... args) throws EndorseException,
+			SubmitException, CommitStatusException, CommitException {
+		try {
+			return delegate.submitTransaction(name, args);
+		} finally {
+			if (args.length > 0) {
+				invalidate(new String(args[0], StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	@Override
+	public byte[] evaluateTransaction(final String name) throws GatewayException {
+		return delegate.evaluateTransaction(name);
+	}
+
+	@Override
+	public byte[] evaluateTransaction(final String name, final byte[]... args) throws GatewayException {
+		return delegate.evaluateTransaction(name, args);
+	}
+
+	@Override
+	public Proposal.Builder newProposal(final String name) {
+		return new InvalidatingProposalBuilder(delegate.newProposal(name));
+	}
+
+	/**
+	 * Remembers the first argument of the proposal, the qr to invalidate once the transaction is submitted.
+	 */
+	private final class InvalidatingProposalBuilder implements Proposal.Builder {
+
+		private final Proposal.Builder builder;
+		private String qr;
+
+		InvalidatingProposalBuilder(final Proposal.Builder builder) {
+			this.builder = builder;
+		}
+
+		@Override
+		public Proposal.Builder addArguments(final byte[]... arguments) {
+			if (qr == null && arguments.length > 0) {
+				qr = new String(arguments[0], StandardCharsets.UTF_8);
+			}
+			builder.addArguments(arguments);
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder addArguments(final String... arguments) {
+			if (qr == null && arguments.length > 0) {
+				qr = arguments[0];
+			}
+			builder.addArguments(arguments);
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder putAllTransient(final Map<String, byte[]> transientData) {
+			builder.putAllTransient(transientData);
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder putTransient(final String key, final byte[] value) {
+			builder.putTransient(key, value);
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder putTransient(final String key, final String value) {
+			builder.putTransient(key, value);
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder setEndorsingOrganizations(final String... mspids) {
+			builder.setEndorsingOrganizations(mspids);
+			return this;
+		}
+
+		@Override
+		public Proposal build() {
+			Proposal proposal = builder.build();
+			return qr == null ? proposal : new InvalidatingProposal(proposal, qr);
+		}
+	}
+
+	private final class InvalidatingProposal implements Proposal {
+
+		private final Proposal proposal;
+		private final String qr;
+
+		InvalidatingProposal(final Proposal proposal, final String qr) {
+			this.proposal = proposal;
+			this.qr = qr;
+		}
+
+		@Override
+		public String getTransactionId() {
+			return proposal.getTransactionId();
+		}
+
+		@Override
+		public byte[] evaluate(final UnaryOperator<CallOptions> options) throws GatewayException {
+			return proposal.evaluate(options);
+		}
+
+		@Override
+		public Transaction endorse(final UnaryOperator<CallOptions> options) throws EndorseException {
+			return new InvalidatingTransaction(proposal.endorse(options), qr);
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return proposal.getBytes();
+		}
+
+		@Override
+		public byte[] getDigest() {
+			return proposal.getDigest();
+		}
+	}
+
+	private final class InvalidatingTransaction implements Transaction {
+
+		private final Transaction transaction;
+		private final String qr;
+
+		InvalidatingTransaction(final Transaction transaction, final String qr) {
+			this.transaction = transaction;
+			this.qr = qr;
+		}
+
+		@Override
+		public byte[] getResult() {
+			return transaction.getResult();
+		}
+
+		@Override
+		public String getTransactionId() {
+			return transaction.getTransactionId();
+		}
+
+		@Override
+		public byte[] submit(final UnaryOperator<CallOptions> options) throws SubmitException,
+				CommitStatusException, CommitException {
+			try {
+				return transaction.submit(options);
+			} finally {
+				invalidate(qr);
+			}
+		}
+
+		@Override
+		public SubmittedTransaction submitAsync(final UnaryOperator<CallOptions> options) throws SubmitException {
+			return new InvalidatingSubmittedTransaction(transaction.submitAsync(options), qr);
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return transaction.getBytes();
+		}
+
+		@Override
+		public byte[] getDigest() {
+			return transaction.getDigest();
+		}
+	}
+
+	private final class InvalidatingSubmittedTransaction implements SubmittedTransaction {
+
+		private final SubmittedTransaction submitted;
+		private final String qr;
+
+		InvalidatingSubmittedTransaction(final SubmittedTransaction submitted, final String qr) {
+			this.submitted = submitted;
+			this.qr = qr;
+		}
+
+		@Override
+		public byte[] getResult() {
+			return submitted.getResult();
+		}
+
+		@Override
+		public String getTransactionId() {
+			return submitted.getTransactionId();
+		}
+
+		@Override
+		public Status getStatus(final UnaryOperator<CallOptions> options) throws CommitStatusException {
+			try {
+				return submitted.getStatus(options);
+			} finally {
+				invalidate(qr);
+			}
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return submitted.getBytes();
+		}
+
+		@Override
+		public byte[] getDigest() {
+			return submitted.getDigest();
+		}
+	}
+}
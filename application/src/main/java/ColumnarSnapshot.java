@@ -0,0 +1,402 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Local columnar snapshot of the tracked plants and their current leg, for analytics that should not load the peers.
+ * <p>
+ * Rows are sorted by timestamp and cut into row groups of {@value #ROW_GROUP_SIZE} rows. Each column of a row group
+ * is deflate-compressed on its own, so a scan only inflates the columns it reads, and the footer keeps the offsets of
+ * the column chunks together with the timestamp and position ranges of every row group, so a scan skips the groups
+ * a filter rules out and scans the others in parallel with positional reads:
+ * <pre>
+ * magic           "BSNAP001"
+ * column chunks   row group after row group, column after column
+ * footer          checkpoint block, row count, then per row group: rows, min/max timestamp, latitude and
+ *                 longitude, offset and length of each column chunk
+ * long            footer offset
+ * magic           "BSNAP001"
+ * </pre>
+ * The checkpoint block is the first block whose changes the snapshot does not contain yet.
+ */
+final class ColumnarSnapshot implements AutoCloseable {
+
+	static final int ROW_GROUP_SIZE = 65_536;
+
+	private static final byte[] MAGIC = "BSNAP001".getBytes(StandardCharsets.US_ASCII);
+
+	enum Column {
+		QR, OWNER, EXTRA_INFO, BASIL_LEG, LATITUDE, LONGITUDE, TIMESTAMP, BLOCK_NUMBER
+	}
+
+	/**
+	 * A plant and its current leg. The position is NaN if the leg has none that parses.
+	 */
+	static final class Row {
+		final String qr;
+		final String owner;
+		final String extraInfo;
+		final String basilLeg;
+		final double latitude;
+		final double longitude;
+		final long timestamp;
+		final long blockNumber;
+
+		Row(final String qr, final String owner, final String extraInfo, final String basilLeg,
+				final double latitude, final double longitude, final long timestamp, final long blockNumber) {
+			this.qr = qr;
+			this.owner = owner;
+			this.extraInfo = extraInfo;
+			this.basilLeg = basilLeg;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.timestamp = timestamp;
+			this.blockNumber = blockNumber;
+		}
+	}
+
+	static final class RowGroup {
+		final int rows;
+		final long minTimestamp;
+		final long maxTimestamp;
+		final double minLatitude;
+		final double maxLatitude;
+		final double minLongitude;
+		final double maxLongitude;
+		private final long[] offsets;
+		private final int[] lengths;
+
+		RowGroup(final int rows, final long minTimestamp, final long maxTimestamp, final double minLatitude,
+				final double maxLatitude, final double minLongitude, final double maxLongitude, final long[] offsets,
+				final int[] lengths) {
+			this.rows = rows;
+			this.minTimestamp = minTimestamp;
+			this.maxTimestamp = maxTimestamp;
+			this.minLatitude = minLatitude;
+			this.maxLatitude = maxLatitude;
+			this.minLongitude = minLongitude;
+			this.maxLongitude = maxLongitude;
+			this.offsets = offsets;
+			this.lengths = lengths;
+		}
+	}
+
+	private final FileChannel channel;
+	private final long checkpointBlock;
+	private final long rowCount;
+	private final List<RowGroup> rowGroups;
+
+	private ColumnarSnapshot(final FileChannel channel, final long checkpointBlock, final long rowCount,
+			final List<RowGroup> rowGroups) {
+		this.channel = channel;
+		this.checkpointBlock = checkpointBlock;
+		this.rowCount = rowCount;
+		this.rowGroups = rowGroups;
+	}
+
+	/**
+	 * Writes the rows to the file, replacing it atomically.
+	 */
+	static void write(final Path file, final long checkpointBlock, final Collection<Row> rows) throws IOException {
+		List<Row> sorted = new ArrayList<>(rows);
+		sorted.sort(Comparator.comparingLong((Row row) -> row.timestamp).thenComparing(row -> row.qr));
+
+		Path temporary = file.toAbsolutePath().resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream stream = Files.newOutputStream(temporary);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+			out.write(MAGIC);
+			long position = MAGIC.length;
+			List<RowGroup> groups = new ArrayList<>();
+			for (int start = 0; start < sorted.size(); start += ROW_GROUP_SIZE) {
+				List<Row> group = sorted.subList(start, Math.min(sorted.size(), start + ROW_GROUP_SIZE));
+				long[] offsets = new long[Column.values().length];
+				int[] lengths = new int[offsets.length];
+				for (Column column : Column.values()) {
+					byte[] chunk = encode(group, column);
+					offsets[column.ordinal()] = position;
+					lengths[column.ordinal()] = chunk.length;
+					out.write(chunk);
+					position += chunk.length;
+				}
+				groups.add(rowGroup(group, offsets, lengths));
+			}
+
+			long footerOffset = position;
+			out.writeLong(checkpointBlock);
+			out.writeLong(sorted.size());
+			out.writeInt(groups.size());
+			for (RowGroup group : groups) {
+				out.writeInt(group.rows);
+				out.writeLong(group.minTimestamp);
+				out.writeLong(group.maxTimestamp);
+				out.writeDouble(group.minLatitude);
+				out.writeDouble(group.maxLatitude);
+				out.writeDouble(group.minLongitude);
+				out.writeDouble(group.maxLongitude);
+				for (int i = 0; i < group.offsets.length; i++) {
+					out.writeLong(group.offsets[i]);
+					out.writeInt(group.lengths[i]);
+				}
+			}
+			out.writeLong(footerOffset);
+			out.write(MAGIC);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static ColumnarSnapshot open(final Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			ByteBuffer trailer = read(channel, size - 8 - MAGIC.length, 8 + MAGIC.length);
+			long footerOffset = trailer.getLong();
+			byte[] magic = new byte[MAGIC.length];
+			trailer.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(file + " is not a columnar snapshot");
+			}
+
+			ByteBuffer footer = read(channel, footerOffset, (int) (size - 8 - MAGIC.length - footerOffset));
+			long checkpointBlock = footer.getLong();
+			long rowCount = footer.getLong();
+			int groupCount = footer.getInt();
+			List<RowGroup> groups = new ArrayList<>(groupCount);
+			for (int g = 0; g < groupCount; g++) {
+				int rows = footer.getInt();
+				long minTimestamp = footer.getLong();
+				long maxTimestamp = footer.getLong();
+				double minLatitude = footer.getDouble();
+				double maxLatitude = footer.getDouble();
+				double minLongitude = footer.getDouble();
+				double maxLongitude = footer.getDouble();
+				long[] offsets = new long[Column.values().length];
+				int[] lengths = new int[offsets.length];
+				for (int i = 0; i < offsets.length; i++) {
+					offsets[i] = footer.getLong();
+					lengths[i] = footer.getInt();
+				}
+				groups.add(new RowGroup(rows, minTimestamp, maxTimestamp, minLatitude, maxLatitude, minLongitude,
+						maxLongitude, offsets, lengths));
+			}
+			return new ColumnarSnapshot(channel, checkpointBlock, rowCount, Collections.unmodifiableList(groups));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	long getCheckpointBlock() {
+		return checkpointBlock;
+	}
+
+	long getRowCount() {
+		return rowCount;
+	}
+
+	List<RowGroup> getRowGroups() {
+		return rowGroups;
+	}
+
+	/**
+	 * Reads a string column of a row group; safe to call from several threads.
+	 */
+	String[] readStrings(final RowGroup group, final Column column) throws IOException {
+		String[] values = new String[group.rows];
+		ByteBuffer in = chunk(group, column);
+		for (int i = 0; i < values.length; i++) {
+			int length = in.getInt();
+			if (length >= 0) {
+				values[i] = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+			}
+		}
+		return values;
+	}
+
+	double[] readDoubles(final RowGroup group, final Column column) throws IOException {
+		double[] values = new double[group.rows];
+		chunk(group, column).asDoubleBuffer().get(values);
+		return values;
+	}
+
+	long[] readLongs(final RowGroup group, final Column column) throws IOException {
+		long[] values = new long[group.rows];
+		chunk(group, column).asLongBuffer().get(values);
+		// timestamps and block numbers are stored as deltas, which compress to almost nothing once sorted
+		for (int i = 1; i < values.length; i++) {
+			values[i] += values[i - 1];
+		}
+		return values;
+	}
+
+	/**
+	 * @return all rows of the snapshot, e.g. to apply changes to it and write it again
+	 */
+	List<Row> readAll() throws IOException {
+		List<Row> rows = new ArrayList<>((int) rowCount);
+		for (RowGroup group : rowGroups) {
+			String[] qrs = readStrings(group, Column.QR);
+			String[] owners = readStrings(group, Column.OWNER);
+			String[] extraInfos = readStrings(group, Column.EXTRA_INFO);
+			String[] basilLegs = readStrings(group, Column.BASIL_LEG);
+			double[] latitudes = readDoubles(group, Column.LATITUDE);
+			double[] longitudes = readDoubles(group, Column.LONGITUDE);
+			long[] timestamps = readLongs(group, Column.TIMESTAMP);
+			long[] blockNumbers = readLongs(group, Column.BLOCK_NUMBER);
+			for (int i = 0; i < group.rows; i++) {
+				rows.add(new Row(qrs[i], owners[i], extraInfos[i], basilLegs[i], latitudes[i], longitudes[i],
+						timestamps[i], blockNumbers[i]));
+			}
+		}
+		return rows;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Inflates a column chunk in one go; going through an {@code InflaterInputStream} value by value is several
+	 * times slower.
+	 */
+	private ByteBuffer chunk(final RowGroup group, final Column column) throws IOException {
+		ByteBuffer compressed = read(channel, group.offsets[column.ordinal()], group.lengths[column.ordinal()]);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array(), 0, compressed.limit());
+			byte[] bytes = new byte[Math.max(1 << 12, compressed.limit() * 4)];
+			int length = 0;
+			while (!inflater.finished()) {
+				if (length == bytes.length) {
+					bytes = Arrays.copyOf(bytes, bytes.length * 2);
+				}
+				int inflated = inflater.inflate(bytes, length, bytes.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new EOFException("Column chunk " + column + " truncated");
+				}
+				length += inflated;
+			}
+			return ByteBuffer.wrap(bytes, 0, length);
+		} catch (DataFormatException e) {
+			throw new IOException("Column chunk " + column + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static ByteBuffer read(final FileChannel channel, final long position, final int length)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Snapshot truncated at " + (position + buffer.position()));
+			}
+		}
+		return buffer.flip();
+	}
+
+	private static byte[] encode(final List<Row> rows, final Column column) throws IOException {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(rows.size() * 16);
+		try (DataOutputStream out = new DataOutputStream(raw)) {
+			long previous = 0;
+			for (Row row : rows) {
+				switch (column) {
+					case QR:
+						writeString(out, row.qr);
+						break;
+					case OWNER:
+						writeString(out, row.owner);
+						break;
+					case EXTRA_INFO:
+						writeString(out, row.extraInfo);
+						break;
+					case BASIL_LEG:
+						writeString(out, row.basilLeg);
+						break;
+					case LATITUDE:
+						out.writeDouble(row.latitude);
+						break;
+					case LONGITUDE:
+						out.writeDouble(row.longitude);
+						break;
+					case TIMESTAMP:
+						out.writeLong(row.timestamp - previous);
+						previous = row.timestamp;
+						break;
+					case BLOCK_NUMBER:
+						out.writeLong(row.blockNumber - previous);
+						previous = row.blockNumber;
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown column " + column);
+				}
+			}
+		}
+
+		// deflated in one go for the same reason chunk() inflates in one go
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw.toByteArray());
+			deflater.finish();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.size() / 2 + 64);
+			byte[] buffer = new byte[1 << 16];
+			while (!deflater.finished()) {
+				bytes.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return bytes.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static RowGroup rowGroup(final List<Row> rows, final long[] offsets, final int[] lengths) {
+		long minTimestamp = Long.MAX_VALUE;
+		long maxTimestamp = Long.MIN_VALUE;
+		double minLatitude = Double.POSITIVE_INFINITY;
+		double maxLatitude = Double.NEGATIVE_INFINITY;
+		double minLongitude = Double.POSITIVE_INFINITY;
+		double maxLongitude = Double.NEGATIVE_INFINITY;
+		for (Row row : rows) {
+			minTimestamp = Math.min(minTimestamp, row.timestamp);
+			maxTimestamp = Math.max(maxTimestamp, row.timestamp);
+			if (!Double.isNaN(row.latitude)) {
+				minLatitude = Math.min(minLatitude, row.latitude);
+				maxLatitude = Math.max(maxLatitude, row.latitude);
+				minLongitude = Math.min(minLongitude, row.longitude);
+				maxLongitude = Math.max(maxLongitude, row.longitude);
+			}
+		}
+		return new RowGroup(rows.size(), minTimestamp, maxTimestamp, minLatitude, maxLatitude, minLongitude,
+				maxLongitude, offsets, lengths);
+	}
+}
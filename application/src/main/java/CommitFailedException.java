@@ -0,0 +1,35 @@
+import org.hyperledger.fabric.client.Status;
+import org.hyperledger.fabric.protos.peer.TxValidationCode;
+
+/**
+ * A transaction that was ordered into a block but marked invalid by the committing peers, e.g. because of an
+ * MVCC read conflict.
+ */
+final class CommitFailedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String transactionId;
+	private final TxValidationCode code;
+	private final long blockNumber;
+
+	CommitFailedException(final String transactionName, final Status status) {
+		super(String.format("Transaction %s (%s) failed to commit with status code %s in block %d",
+				transactionName, status.getTransactionId(), status.getCode(), status.getBlockNumber()));
+		this.transactionId = status.getTransactionId();
+		this.code = status.getCode();
+		this.blockNumber = status.getBlockNumber();
+	}
+
+	String getTransactionId() {
+		return transactionId;
+	}
+
+	TxValidationCode getCode() {
+		return code;
+	}
+
+	long getBlockNumber() {
+		return blockNumber;
+	}
+}
@@ -0,0 +1,345 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hyperledger.fabric.protos.gateway.CommitStatusRequest;
+import org.hyperledger.fabric.protos.gateway.EndorseRequest;
+import org.hyperledger.fabric.protos.gateway.EvaluateRequest;
+import org.hyperledger.fabric.protos.gateway.SignedCommitStatusRequest;
+import org.hyperledger.fabric.protos.gateway.SubmitRequest;
+import org.hyperledger.fabric.protos.peer.ChaincodeInvocationSpec;
+import org.hyperledger.fabric.protos.peer.ChaincodeProposalPayload;
+import org.hyperledger.fabric.protos.peer.Proposal;
+import org.hyperledger.fabric.protos.peer.SignedProposal;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Deadline;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Latency of the Gateway calls of the client by org, transaction and phase, with the calls that failed and those that
+ * ran out of their deadline, written in the Prometheus text format.
+ * <p>
+ * A submit is three Gateway calls, endorse, submit to the orderer and the wait for the commit status, each with the
+ * deadline of its own {@code endorseOptions}, {@code submitOptions} and {@code commitStatusOptions}; an evaluation is
+ * one more. Timing them apart tells which one a slow submit spent its time in. The calls are measured by a gRPC
+ * interceptor on the connection of each gateway, see {@link #interceptor}, so every way of submitting is covered,
+ * {@link SubmissionEngine}'s pipeline included. The transaction name is read from the proposal of the endorse and
+ * evaluate requests and looked up by transaction id for the submit and commit status calls that follow.
+ * <p>
+ * The histogram buckets are counted from {@link LatencyHistogram}s, so their bounds are as exact as its resolution.
+ */
+final class GatewayMetrics implements AutoCloseable {
+
+	enum Phase {
+		EVALUATE("evaluate", "gateway.Gateway/Evaluate"),
+		ENDORSE("endorse", "gateway.Gateway/Endorse"),
+		SUBMIT("submit", "gateway.Gateway/Submit"),
+		COMMIT_STATUS("commit_status", "gateway.Gateway/CommitStatus");
+
+		private final String label;
+		private final String method;
+
+		Phase(final String label, final String method) {
+			this.label = label;
+			this.method = method;
+		}
+
+		static Phase of(final String fullMethodName) {
+			for (Phase phase : values()) {
+				if (phase.method.equals(fullMethodName)) {
+					return phase;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final double[] BUCKET_SECONDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+	private static final String UNKNOWN = "unknown";
+
+	// names of the endorsed transactions until their commit status is read; bounded, past it they count as unknown
+	private static final int MAX_PENDING_NAMES = 100_000;
+
+	private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Long> deadlineMicros = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, String> pendingNames = new ConcurrentHashMap<>();
+	private ScheduledExecutorService dumper;
+	private Path dumpFile;
+
+	/**
+	 * @return an interceptor that measures the Gateway calls made through the channel it is added to, as calls of
+	 * the org
+	 */
+	ClientInterceptor interceptor(final String org) {
+		return new ClientInterceptor() {
+			@Override
+			public <Q, R> ClientCall<Q, R> interceptCall(final MethodDescriptor<Q, R> method,
+					final CallOptions callOptions, final Channel next) {
+				Phase phase = Phase.of(method.getFullMethodName());
+				if (phase == null) {
+					return next.newCall(method, callOptions);
+				}
+				Deadline deadline = callOptions.getDeadline();
+				if (deadline != null) {
+					deadlineMicros.put(org + '\u0000' + phase.label, deadline.timeRemaining(TimeUnit.MICROSECONDS));
+				}
+				return new MeasuredCall<>(next.newCall(method, callOptions), org, phase);
+			}
+		};
+	}
+
+	/**
+	 * Writes the metrics to the file every interval, replacing it atomically, e.g. for the textfile collector of the
+	 * Prometheus node exporter. The file is written a last time on {@link #close}.
+	 */
+	synchronized void dumpEvery(final Path file, final Duration interval) {
+		if (dumper != null) {
+			throw new IllegalStateException("Already dumping");
+		}
+		dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "gateway-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleWithFixedDelay(() -> dump(file), interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+		dumpFile = file;
+	}
+
+	@Override
+	public synchronized void close() throws InterruptedException {
+		if (dumper == null) {
+			return;
+		}
+		dumper.shutdown();
+		dumper.awaitTermination(10, TimeUnit.SECONDS);
+		dumper = null;
+		dump(dumpFile);
+	}
+
+	void writePrometheus(final Writer out) throws IOException {
+		Map<String, Series> sorted = new TreeMap<>(series);
+
+		out.write("# HELP basil_gateway_call_seconds Latency of the Gateway calls by org, transaction and phase.\n");
+		out.write("# TYPE basil_gateway_call_seconds histogram\n");
+		for (Series s : sorted.values()) {
+			for (double bound : BUCKET_SECONDS) {
+				long micros = Math.round(bound * 1_000_000);
+				out.write(s.sample("basil_gateway_call_seconds_bucket", "le=\"" + bound + "\"",
+						Long.toString(s.latency.getCountAtOrBelow(micros))));
+			}
+			long count = s.latency.getCount();
+			out.write(s.sample("basil_gateway_call_seconds_bucket", "le=\"+Inf\"", Long.toString(count)));
+			out.write(s.sample("basil_gateway_call_seconds_sum", null, seconds(s.latency.getSumMicros())));
+			out.write(s.sample("basil_gateway_call_seconds_count", null, Long.toString(count)));
+		}
+
+		out.write("# HELP basil_gateway_call_errors_total Gateway calls that failed, by org, transaction and phase.\n");
+		out.write("# TYPE basil_gateway_call_errors_total counter\n");
+		for (Series s : sorted.values()) {
+			out.write(s.sample("basil_gateway_call_errors_total", null, Long.toString(s.errors.sum())));
+		}
+
+		out.write("# HELP basil_gateway_deadline_exceeded_total Gateway calls that ran out of their deadline.\n");
+		out.write("# TYPE basil_gateway_deadline_exceeded_total counter\n");
+		for (Series s : sorted.values()) {
+			out.write(s.sample("basil_gateway_deadline_exceeded_total", null, Long.toString(s.deadlinesExceeded.sum())));
+		}
+
+		out.write("# HELP basil_gateway_deadline_seconds Deadline the last Gateway call of each org and phase was made with.\n");
+		out.write("# TYPE basil_gateway_deadline_seconds gauge\n");
+		for (Map.Entry<String, Long> deadline : new TreeMap<>(deadlineMicros).entrySet()) {
+			String[] labels = deadline.getKey().split("\u0000");
+			out.write(String.format("basil_gateway_deadline_seconds{org=\"%s\",phase=\"%s\"} %s\n", escape(labels[0]),
+					labels[1], seconds(deadline.getValue())));
+		}
+		out.flush();
+	}
+
+	/**
+	 * @return one line per org, transaction and phase, e.g.
+	 * {@code org1 CreateTracking endorse n=10 mean=21.0ms ... errors=0 deadlineExceeded=0}
+	 */
+	String summary() {
+		StringBuilder summary = new StringBuilder();
+		for (Series s : new TreeMap<>(series).values()) {
+			summary.append(String.format("%s %s %s %s errors=%d deadlineExceeded=%d%n", s.org, s.transaction,
+					s.phase.label, s.latency.summary(), s.errors.sum(), s.deadlinesExceeded.sum()));
+		}
+		return summary.toString();
+	}
+
+	private void dump(final Path file) {
+		Path directory = file.toAbsolutePath().getParent();
+		try {
+			Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				writePrometheus(out);
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Failed to write the gateway metrics to " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void record(final String org, final String transaction, final Phase phase, final long nanos,
+			final Status status) {
+		series.computeIfAbsent(org + '\u0000' + transaction + '\u0000' + phase.ordinal(),
+				key -> new Series(org, transaction, phase))
+				.record(nanos, status.getCode());
+	}
+
+	/**
+	 * @return the transaction name of the request, remembering it for the calls that follow an endorsement
+	 */
+	private String transactionName(final Phase phase, final Object request) {
+		switch (phase) {
+			case EVALUATE:
+				return transactionName(((EvaluateRequest) request).getProposedTransaction());
+			case ENDORSE:
+				EndorseRequest endorse = (EndorseRequest) request;
+				String name = transactionName(endorse.getProposedTransaction());
+				if (pendingNames.size() < MAX_PENDING_NAMES) {
+					pendingNames.put(endorse.getTransactionId(), name);
+				}
+				return name;
+			case SUBMIT:
+				return pendingNames.getOrDefault(((SubmitRequest) request).getTransactionId(), UNKNOWN);
+			case COMMIT_STATUS:
+				try {
+					String transactionId = CommitStatusRequest.parseFrom(((SignedCommitStatusRequest) request).getRequest())
+							.getTransactionId();
+					String pending = pendingNames.remove(transactionId);
+					return pending == null ? UNKNOWN : pending;
+				} catch (InvalidProtocolBufferException e) {
+					return UNKNOWN;
+				}
+			default:
+				return UNKNOWN;
+		}
+	}
+
+	private static String transactionName(final SignedProposal signedProposal) {
+		try {
+			ByteString payload = Proposal.parseFrom(signedProposal.getProposalBytes()).getPayload();
+			ByteString input = ChaincodeProposalPayload.parseFrom(payload).getInput();
+			List<ByteString> args = ChaincodeInvocationSpec.parseFrom(input).getChaincodeSpec().getInput().getArgsList();
+			return args.isEmpty() ? UNKNOWN : args.get(0).toStringUtf8();
+		} catch (InvalidProtocolBufferException e) {
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Forgets the name of a transaction that will not reach the commit status call.
+	 */
+	private void forget(final Phase phase, final Object request) {
+		if (phase == Phase.ENDORSE) {
+			pendingNames.remove(((EndorseRequest) request).getTransactionId());
+		} else if (phase == Phase.SUBMIT) {
+			pendingNames.remove(((SubmitRequest) request).getTransactionId());
+		}
+	}
+
+	private static String seconds(final long micros) {
+		return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+	}
+
+	private static String escape(final String label) {
+		return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private final class MeasuredCall<Q, R> extends ForwardingClientCall.SimpleForwardingClientCall<Q, R> {
+
+		private final String org;
+		private final Phase phase;
+		private long start;
+		private volatile Object request;
+		private volatile String transaction = UNKNOWN;
+
+		MeasuredCall(final ClientCall<Q, R> delegate, final String org, final Phase phase) {
+			super(delegate);
+			this.org = org;
+			this.phase = phase;
+		}
+
+		@Override
+		public void start(final Listener<R> responseListener, final Metadata headers) {
+			start = System.nanoTime();
+			super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<R>(responseListener) {
+				@Override
+				public void onClose(final Status status, final Metadata trailers) {
+					record(org, transaction, phase, System.nanoTime() - start, status);
+					if (!status.isOk() && request != null) {
+						forget(phase, request);
+					}
+					super.onClose(status, trailers);
+				}
+			}, headers);
+		}
+
+		@Override
+		public void sendMessage(final Q message) {
+			request = message;
+			transaction = transactionName(phase, message);
+			super.sendMessage(message);
+		}
+	}
+
+	private static final class Series {
+
+		private final String org;
+		private final String transaction;
+		private final Phase phase;
+		private final String labels;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder deadlinesExceeded = new LongAdder();
+
+		Series(final String org, final String transaction, final Phase phase) {
+			this.org = org;
+			this.transaction = transaction;
+			this.phase = phase;
+			this.labels = String.format("org=\"%s\",transaction=\"%s\",phase=\"%s\"", escape(org), escape(transaction),
+					phase.label);
+		}
+
+		void record(final long nanos, final Status.Code code) {
+			latency.record(nanos, TimeUnit.NANOSECONDS);
+			if (code != Status.Code.OK) {
+				errors.increment();
+			}
+			if (code == Status.Code.DEADLINE_EXCEEDED) {
+				deadlinesExceeded.increment();
+			}
+		}
+
+		String sample(final String name, final String extraLabel, final String value) {
+			return name + '{' + labels + (extraLabel == null ? "" : ',' + extraLabel) + "} " + value + '\n';
+		}
+	}
+}
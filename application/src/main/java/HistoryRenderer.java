@@ -0,0 +1,211 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.GatewayException;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes plant histories to the console or as NDJSON token by token, without building a tree or a string of them.
+ * <p>
+ * Accepts both a {@code GetHistory} result, a JSON array of entries, and {@code GetHistoryPage} pages, whose
+ * {@code records} are the entries. On the console the entries of all pages rendered are pretty printed as one array;
+ * as NDJSON each entry is one compact line. Memory is bounded by the largest single entry, plus the payload the
+ * gateway returns; {@link #export} keeps that to one page.
+ */
+final class HistoryRenderer {
+
+	private final Writer out;
+	private final boolean ndjson;
+	private final JsonWriter writer;
+	private long entries;
+
+	HistoryRenderer(final Writer out, final boolean ndjson) throws IOException {
+		this.out = out;
+		this.ndjson = ndjson;
+		this.writer = new JsonWriter(out);
+		if (ndjson) {
+			// one top-level value per line
+			writer.setLenient(true);
+		} else {
+			writer.setIndent("  ");
+			writer.beginArray();
+		}
+	}
+
+	/**
+	 * Streams the whole history of a plant page by page.
+	 *
+	 * @return the number of entries written
+	 */
+	static long export(final Contract contract, final String qr, final int pageSize, final HistoryRenderer renderer)
+			throws GatewayException, IOException {
+		String bookmark = "";
+		do {
+			byte[] page = contract.evaluateTransaction("GetHistoryPage", qr, Integer.toString(pageSize), bookmark, "0", "0");
+			bookmark = renderer.render(page);
+		} while (!bookmark.isEmpty());
+		renderer.finish();
+		return renderer.getEntries();
+	}
+
+	/**
+	 * @return the bookmark of the next page, empty for the last page and for a whole history
+	 */
+	String render(final byte[] json) throws IOException {
+		return render(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return the bookmark of the next page, empty for the last page and for a whole history
+	 */
+	String render(final Reader json) throws IOException {
+		String bookmark = "";
+		try (JsonReader reader = new JsonReader(json)) {
+			if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+				entries(reader);
+				return bookmark;
+			}
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "records":
+						entries(reader);
+						break;
+					case "bookmark":
+						bookmark = reader.nextString();
+						break;
+					default:
+						reader.skipValue();
+						break;
+				}
+			}
+			reader.endObject();
+		}
+		return bookmark;
+	}
+
+	long getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Closes the console array and flushes; the underlying writer stays open.
+	 */
+	void finish() throws IOException {
+		if (!ndjson) {
+			writer.endArray();
+			out.write(System.lineSeparator());
+		}
+		writer.flush();
+	}
+
+	private void entries(final JsonReader reader) throws IOException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			copy(reader, writer);
+			if (ndjson) {
+				out.write('\n');
+			}
+			entries++;
+		}
+		reader.endArray();
+	}
+
+	private static void copy(final JsonReader in, final JsonWriter out) throws IOException {
+		int depth = 0;
+		do {
+			switch (in.peek()) {
+				case BEGIN_ARRAY:
+					in.beginArray();
+					out.beginArray();
+					depth++;
+					break;
+				case END_ARRAY:
+					in.endArray();
+					out.endArray();
+					depth--;
+					break;
+				case BEGIN_OBJECT:
+					in.beginObject();
+					out.beginObject();
+					depth++;
+					break;
+				case END_OBJECT:
+					in.endObject();
+					out.endObject();
+					depth--;
+					break;
+				case NAME:
+					out.name(in.nextName());
+					break;
+				case STRING:
+					out.value(in.nextString());
+					break;
+				case NUMBER:
+					// as written by the chaincode, without a round trip through double
+					out.jsonValue(in.nextString());
+					break;
+				case BOOLEAN:
+					out.value(in.nextBoolean());
+					break;
+				case NULL:
+					in.nextNull();
+					out.nullValue();
+					break;
+				default:
+					throw new IOException("Unexpected " + in.peek() + " at " + in.getPath());
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * @return a {@code GetHistory} result of {@code entries} made up entries, generated as it is read
+	 */
+	static Reader synthetic(final int entries) {
+		return new Reader() {
+			private final StringBuilder chunk = new StringBuilder("[");
+			private int position;
+			private int generated;
+
+			@Override
+			public int read(final char[] buffer, final int offset, final int length) {
+				if (position == chunk.length()) {
+					if (generated > entries) {
+						return -1;
+					}
+					chunk.setLength(0);
+					position = 0;
+					if (generated == entries) {
+						chunk.append(']');
+					} else {
+						chunk.append(generated == 0 ? "" : ",")
+								.append("{\"qr\":\"SYN-000001\",\"extraInfo\":\"{\\\"variety\\\":\\\"genovese\\\",\\\"pot\\\":")
+								.append(generated % 97)
+								.append("}\",\"owner\":\"")
+								.append(generated % 2 == 0 ? "ORG1MSP" : "ORG2MSP")
+								.append("\",\"basilLeg\":\"")
+								.append(Long.toString(1_700_000_000_000L + generated, 36))
+								.append("\"}");
+					}
+					generated++;
+				}
+				int count = Math.min(length, chunk.length() - position);
+				chunk.getChars(position, position + count, buffer, offset);
+				position += count;
+				return count;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+}
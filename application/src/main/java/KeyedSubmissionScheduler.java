@@ -0,0 +1,223 @@
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.protos.peer.TxValidationCode;
+
+/**
+ * Submits transactions through a {@link SubmissionEngine}, one at a time per key.
+ * <p>
+ * The key of a transaction is its first argument, the qr of the plant. Transactions about the same plant that are
+ * in flight together read the same version of its records and all but one fail validation, so they are queued per
+ * key instead: the next one is endorsed once the previous one committed and sees its writes. Keys are hashed onto
+ * {@value #STRIPES} striped queues, transactions about different stripes run in parallel up to the engine's window.
+ * <p>
+ * A transaction that still fails with an MVCC or phantom read conflict, because another client changed the plant,
+ * is endorsed again after a jittered exponential backoff, holding its stripe so the order per key is kept. At most
+ * {@code maxQueued} transactions are waiting or in flight; {@link #submit} blocks beyond that.
+ */
+final class KeyedSubmissionScheduler implements AutoCloseable {
+
+	private static final int STRIPES = 256;
+
+	static final int DEFAULT_MAX_ATTEMPTS = 5;
+	private static final long BASE_BACKOFF_MILLIS = 50;
+	private static final long MAX_BACKOFF_MILLIS = 2_000;
+
+	private final SubmissionEngine engine;
+	private final int maxQueued;
+	private final int maxAttempts;
+	private final Semaphore queued;
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	// dispatches queued transactions and retries; waiting for a slot in the engine never blocks a worker
+	private final ScheduledExecutorService dispatcher;
+
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder committed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder conflicts = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder exhausted = new LongAdder();
+
+	private static final class Stripe {
+		final ArrayDeque<Task> waiting = new ArrayDeque<>();
+		boolean busy;
+	}
+
+	private static final class Task {
+		final String name;
+		final String[] args;
+		final CompletableFuture<byte[]> result = new CompletableFuture<>();
+		int attempts;
+
+		Task(final String name, final String[] args) {
+			this.name = name;
+			this.args = args;
+		}
+	}
+
+	KeyedSubmissionScheduler(final Contract contract, final int window, final int maxQueued, final int maxAttempts) {
+		this.engine = new SubmissionEngine(contract, window);
+		this.maxQueued = maxQueued;
+		this.maxAttempts = maxAttempts;
+		this.queued = new Semaphore(maxQueued);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+		this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "submit-dispatcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues a transaction behind the others about the same key.
+	 *
+	 * @param args the first argument is the key
+	 * @return completes like {@link SubmissionEngine#submit}, with the outcome of the last attempt
+	 */
+	CompletableFuture<byte[]> submit(final String name, final String... args) throws InterruptedException {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("Transaction " + name + " has no key argument");
+		}
+		queued.acquire();
+		submitted.increment();
+		Task task = new Task(name, args);
+		task.result.whenComplete((value, error) -> queued.release());
+
+		Stripe stripe = stripes[(args[0].hashCode() & 0x7fffffff) % STRIPES];
+		boolean idle;
+		synchronized (stripe) {
+			idle = !stripe.busy;
+			if (idle) {
+				stripe.busy = true;
+			} else {
+				stripe.waiting.add(task);
+			}
+		}
+		if (idle) {
+			dispatcher.execute(() -> attempt(stripe, task));
+		}
+		return task.result;
+	}
+
+	private void attempt(final Stripe stripe, final Task task) {
+		task.attempts++;
+		CompletableFuture<byte[]> attempt;
+		try {
+			attempt = engine.submit(task.name, task.args);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			finish(stripe, task, null, e);
+			return;
+		} catch (RuntimeException e) {
+			finish(stripe, task, null, e);
+			return;
+		}
+		attempt.whenComplete((value, error) -> {
+			if (error != null && isConflict(error)) {
+				conflicts.increment();
+				if (task.attempts < maxAttempts) {
+					retries.increment();
+					dispatcher.schedule(() -> attempt(stripe, task), backoffMillis(task.attempts), TimeUnit.MILLISECONDS);
+					return;
+				}
+				exhausted.increment();
+			}
+			finish(stripe, task, value, error);
+		});
+	}
+
+	private void finish(final Stripe stripe, final Task task, final byte[] value, final Throwable error) {
+		Task next;
+		synchronized (stripe) {
+			next = stripe.waiting.poll();
+			if (next == null) {
+				stripe.busy = false;
+			}
+		}
+		if (next != null) {
+			dispatcher.execute(() -> attempt(stripe, next));
+		}
+
+		if (error == null) {
+			committed.increment();
+			task.result.complete(value);
+		} else {
+			failed.increment();
+			task.result.completeExceptionally(error);
+		}
+	}
+
+	private static boolean isConflict(final Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		if (!(cause instanceof CommitFailedException)) {
+			return false;
+		}
+		TxValidationCode code = ((CommitFailedException) cause).getCode();
+		return code == TxValidationCode.MVCC_READ_CONFLICT || code == TxValidationCode.PHANTOM_READ_CONFLICT;
+	}
+
+	/**
+	 * Exponential backoff with equal jitter: half the delay is fixed, the other half random, so retries of
+	 * transactions that conflicted together spread out.
+	 */
+	private static long backoffMillis(final int attempts) {
+		long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	SubmissionEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return transactions waiting for their key or in flight
+	 */
+	int getQueued() {
+		return maxQueued - queued.availablePermits();
+	}
+
+	long getConflicts() {
+		return conflicts.sum();
+	}
+
+	long getRetries() {
+		return retries.sum();
+	}
+
+	/**
+	 * @return e.g. {@code submitted=500 committed=498 failed=2 conflicts=14 retries=12 exhausted=2 conflictRate=2.8%}
+	 */
+	String stats() {
+		long submittedCount = submitted.sum();
+		return String.format(Locale.ROOT,
+				"submitted=%d committed=%d failed=%d conflicts=%d retries=%d exhausted=%d conflictRate=%.1f%%",
+				submittedCount, committed.sum(), failed.sum(), conflicts.sum(), retries.sum(), exhausted.sum(),
+				submittedCount == 0 ? 0 : 100.0 * conflicts.sum() / submittedCount);
+	}
+
+	/**
+	 * Waits for the queued transactions, including their retries, then stops the engine.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		queued.acquire(maxQueued);
+		try {
+			dispatcher.shutdown();
+			dispatcher.awaitTermination(1, TimeUnit.MINUTES);
+			engine.close();
+		} finally {
+			queued.release(maxQueued);
+		}
+	}
+}
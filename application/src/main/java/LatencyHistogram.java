@@ -0,0 +1,119 @@
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent latency histogram with about 6% resolution, recorded in microseconds.
+ * <p>
+ * Values below 16 have a bucket each; above that every power of two is split into 8 linear sub-buckets, so the
+ * memory is fixed and recording is a single atomic increment.
+ */
+final class LatencyHistogram {
+
+	private static final int LINEAR = 16;
+	private static final int SUB_BUCKETS = 8;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int BUCKETS = LINEAR + (64 - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(final long duration, final TimeUnit unit) {
+		long micros = Math.max(0, unit.toMicros(duration));
+		counts.incrementAndGet(index(micros));
+		count.increment();
+		sum.add(micros);
+		max.accumulateAndGet(micros, Math::max);
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	long getSumMicros() {
+		return sum.sum();
+	}
+
+	long getMaxMicros() {
+		return max.get();
+	}
+
+	double getMeanMicros() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return upper bound of the bucket holding the percentile, in microseconds
+	 */
+	long getPercentileMicros(final double percentile) {
+		long n = count.sum();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return the number of values not greater than the bound, rounded to the bucket resolution
+	 */
+	long getCountAtOrBelow(final long micros) {
+		long below = 0;
+		int last = index(micros);
+		for (int i = 0; i <= last; i++) {
+			below += counts.get(i);
+		}
+		return below;
+	}
+
+	/**
+	 * @return e.g. {@code n=1000 mean=1.2ms p50=1.1ms p90=1.9ms p99=3.4ms p99.9=5.0ms max=5.2ms}
+	 */
+	String summary() {
+		return String.format("n=%d mean=%s p50=%s p90=%s p99=%s p99.9=%s max=%s", getCount(),
+				format(Math.round(getMeanMicros())), format(getPercentileMicros(50)), format(getPercentileMicros(90)),
+				format(getPercentileMicros(99)), format(getPercentileMicros(99.9)), format(getMaxMicros()));
+	}
+
+	static String format(final long micros) {
+		if (micros < 1_000) {
+			return micros + "us";
+		}
+		if (micros < 1_000_000) {
+			return String.format(Locale.ROOT, "%.1fms", micros / 1_000.0);
+		}
+		return String.format(Locale.ROOT, "%.2fs", micros / 1_000_000.0);
+	}
+
+	private static int index(final long micros) {
+		if (micros < LINEAR) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - 4) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long upperBound(final int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+		int subBucket = (index - LINEAR) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (subBucket + 1) * width - 1;
+	}
+}
@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hyperledger.fabric.client.CommitException;
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.GatewayException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP front end to the contract, for callers such as the ERP and the scanner stations that cannot use the REPL.
+ * <p>
+ * Every transaction is served at {@code /<org>/<Transaction>}: evaluations with {@code GET}, submissions with
+ * {@code POST}. Arguments are named like the chaincode's parameters and passed in the query string, or for a
+ * {@code POST} also as a JSON object body. {@code GET /} lists the transactions and their parameters. Results are
+ * returned as they come from the chaincode; errors as {@code {"error": "..."}} with a status telling the caller's
+ * mistakes ({@code 4xx}, including the errors the chaincode reports, such as {@code 404} for a plant that does not
+ * exist) from the network's ({@code 5xx}).
+ * <p>
+ * Callers are not authenticated: they submit as the organizations whose identities the service holds. It listens
+ * on the loopback address unless told otherwise, for a reverse proxy or a sidecar that authenticates the callers.
+ * <p>
+ * Each request blocks on the gateway for the length of a round trip, so requests run on virtual threads where the
+ * runtime has them and on a bounded pool otherwise. Identical evaluations that are in flight at the same time are
+ * coalesced: the later callers wait for the first one's result instead of asking the peer again.
+ */
+final class LedgerService implements AutoCloseable {
+
+	private static final int BACKLOG = 1024;
+
+	static {
+		// the JDK server leaves Nagle's algorithm on by default, which holds small responses back for the delayed
+		// ACK of the previous write: some 40ms on every request. Read once, when the first server is created.
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private static final class Operation {
+		final boolean submit;
+		// parameter names, with the default after '=' for the optional ones
+		final String[] parameters;
+
+		Operation(final boolean submit, final String... parameters) {
+			this.submit = submit;
+			this.parameters = parameters;
+		}
+	}
+
+	// status of the errors the chaincode reports, by their code, see AssetTransferErrors
+	private static final Map<String, Integer> CHAINCODE_ERROR_STATUS = Map.of(
+			"BASIL_NOT_FOUND", 404,
+			"BASIL_ALREADY_EXISTS", 409,
+			"NOT_THE_OWNER", 403,
+			"ACCESS_DENIED", 403,
+			"INVALID_ARGUMENT", 400);
+
+	private static final Map<String, Operation> OPERATIONS = new LinkedHashMap<>();
+	static {
+		OPERATIONS.put("CreateTracking", new Operation(true, "qr", "extraInfo", "gpsPosition"));
+		OPERATIONS.put("StopTracking", new Operation(true, "qr"));
+		OPERATIONS.put("UpdateTracking", new Operation(true, "qr", "gpsPosition"));
+		OPERATIONS.put("UpdatePosition", new Operation(true, "qr", "gpsPosition"));
+		OPERATIONS.put("TransferTracking", new Operation(true, "qr", "newOwner"));
+		OPERATIONS.put("CreateTrackingBatch", new Operation(true, "plantsJson"));
+		OPERATIONS.put("UpdateTrackingBatch", new Operation(true, "updatesJson"));
+		OPERATIONS.put("CompactStatistics", new Operation(true, "shard"));
+		OPERATIONS.put("SummarizeTracking", new Operation(true, "qrsJson"));
+		OPERATIONS.put("GetActualTracking", new Operation(false, "qr"));
+		OPERATIONS.put("GetHistory", new Operation(false, "qr"));
+		OPERATIONS.put("GetTrackSummary", new Operation(false, "qr"));
+		OPERATIONS.put("GetHistoryPage", new Operation(false, "qr", "pageSize", "bookmark=", "fromTimestamp=0",
+				"toTimestamp=" + Long.MAX_VALUE));
+		OPERATIONS.put("GetLegsInRange", new Operation(false, "qr", "from", "to", "pageSize", "bookmark="));
+		OPERATIONS.put("GetBasilsByOwner", new Operation(false, "owner", "pageSize", "bookmark="));
+		OPERATIONS.put("QueryBasilsByOwner", new Operation(false, "owner", "pageSize", "bookmark="));
+		OPERATIONS.put("GetBasilsInBoundingBox", new Operation(false, "minLatitude", "minLongitude", "maxLatitude",
+				"maxLongitude", "pageSize", "bookmark="));
+		OPERATIONS.put("ExportTracking", new Operation(false, "pageSize", "bookmark="));
+		OPERATIONS.put("GetStatistics", new Operation(false));
+		OPERATIONS.put("GetMetrics", new Operation(false));
+	}
+
+	private final Map<String, Contract> contracts;
+	private final BlobStore blobs;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * @param contracts the contract of each organization, by the first segment of the paths
+	 * @param address   the address to listen on; the service submits as the organizations without authenticating
+	 *                  its callers, so anything but the loopback address must be reachable by trusted callers only
+	 * @param port      the port to listen on, 0 for any free one
+	 */
+	LedgerService(final Map<String, Contract> contracts, final BlobStore blobs, final InetAddress address,
+			final int port, final int maxThreads) throws IOException {
+		this.contracts = contracts;
+		this.blobs = blobs;
+		this.executor = newRequestExecutor(maxThreads);
+		this.server = HttpServer.create(new InetSocketAddress(address, port), BACKLOG);
+		this.server.createContext("/", this::handle);
+		this.server.setExecutor(executor);
+	}
+
+	/**
+	 * @return virtual threads on Java 21 and later, a pool of {@code maxThreads} platform threads before; the build
+	 * targets Java 11, hence the reflection
+	 */
+	static ExecutorService newRequestExecutor(final int maxThreads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(maxThreads);
+		}
+	}
+
+	void start() {
+		server.start();
+	}
+
+	InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return e.g. {@code requests 1200 coalesced 800 failed 0 on virtual threads}
+	 */
+	String stats() {
+		return String.format(Locale.ROOT, "requests %d coalesced %d failed %d on %s", requests.sum(), coalesced.sum(),
+				failed.sum(), executor.getClass().getSimpleName().contains("ThreadPerTask") ? "virtual threads"
+						: "platform threads");
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		server.stop(1);
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		requests.increment();
+		try {
+			String[] path = exchange.getRequestURI().getPath().split("/");
+			if (path.length <= 1) {
+				respond(exchange, 200, describe());
+				return;
+			}
+			Contract contract = contracts.get(path[1]);
+			Operation operation = path.length == 3 ? OPERATIONS.get(path[2]) : null;
+			if (contract == null || operation == null) {
+				error(exchange, 404, "Unknown path " + exchange.getRequestURI().getPath());
+				return;
+			}
+			String method = operation.submit ? "POST" : "GET";
+			if (!method.equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", method);
+				error(exchange, 405, path[2] + " is called with " + method);
+				return;
+			}
+
+			Map<String, String> values = parameters(exchange);
+			String[] args = new String[operation.parameters.length];
+			for (int i = 0; i < args.length; i++) {
+				String[] parameter = operation.parameters[i].split("=", 2);
+				args[i] = values.getOrDefault(parameter[0], parameter.length > 1 ? parameter[1] : null);
+				if (args[i] == null) {
+					error(exchange, 400, "Missing parameter " + parameter[0]);
+					return;
+				}
+			}
+			if ("CreateTracking".equals(path[2])) {
+				args[1] = blobs.externalize(args[1]);
+			}
+
+			byte[] result = operation.submit
+					? contract.submitTransaction(path[2], args)
+					: evaluate(path[1], contract, path[2], args);
+			respond(exchange, 200, result);
+		} catch (IllegalArgumentException e) {
+			error(exchange, 400, e.getMessage());
+		} catch (CommitException e) {
+			// endorsed, but invalidated at commit, typically by a concurrent change to the same plant
+			error(exchange, 409, e.getMessage());
+		} catch (GatewayException e) {
+			switch (e.getStatus().getCode()) {
+				case DEADLINE_EXCEEDED:
+					error(exchange, 504, e.getMessage());
+					break;
+				case UNAVAILABLE:
+					error(exchange, 503, e.getMessage());
+					break;
+				default:
+					error(exchange, chaincodeErrorStatus(e), e.getMessage() + details(e));
+					break;
+			}
+		} catch (Exception e) {
+			error(exchange, 500, String.valueOf(e.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private byte[] evaluate(final String org, final Contract contract, final String name, final String[] args)
+			throws GatewayException {
+		String key = org + '\u0000' + name + '\u0000' + String.join("\u0000", args);
+		CompletableFuture<byte[]> call = new CompletableFuture<>();
+		CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, call);
+		if (running != null) {
+			coalesced.increment();
+			try {
+				return running.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted waiting for " + name, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof GatewayException) {
+					throw (GatewayException) e.getCause();
+				}
+				throw new IllegalStateException(name + " failed", e.getCause());
+			}
+		}
+		try {
+			byte[] result = contract.evaluateTransaction(name, args);
+			call.complete(result);
+			return result;
+		} catch (GatewayException | RuntimeException e) {
+			call.completeExceptionally(e);
+			throw e;
+		} finally {
+			// a call that started after this one completed must see the ledger as it is by then
+			inFlight.remove(key, call);
+		}
+	}
+
+	private static Map<String, String> parameters(final HttpExchange exchange) throws IOException {
+		Map<String, String> parameters = new HashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				String[] pair = parameter.split("=", 2);
+				parameters.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+						pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+			}
+		}
+		if ("POST".equals(exchange.getRequestMethod())) {
+			String body;
+			try (InputStream in = exchange.getRequestBody()) {
+				body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+			if (!body.isBlank()) {
+				JsonObject json;
+				try {
+					json = JsonParser.parseString(body).getAsJsonObject();
+				} catch (JsonSyntaxException | IllegalStateException e) {
+					throw new IllegalArgumentException("The body must be a JSON object of the parameters");
+				}
+				for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+					JsonElement value = entry.getValue();
+					// batches may be given as JSON arrays rather than as strings holding one
+					parameters.put(entry.getKey(), value.isJsonPrimitive() ? value.getAsString() : value.toString());
+				}
+			}
+		}
+		return parameters;
+	}
+
+	private static byte[] describe() {
+		JsonObject transactions = new JsonObject();
+		OPERATIONS.forEach((name, operation) -> {
+			JsonObject description = new JsonObject();
+			description.addProperty("method", operation.submit ? "POST" : "GET");
+			JsonArray parameters = new JsonArray();
+			for (String parameter : operation.parameters) {
+				parameters.add(parameter.split("=", 2)[0]);
+			}
+			description.add("parameters", parameters);
+			transactions.add(name, description);
+		});
+		return transactions.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the status of an error the chaincode reported, by the code its message starts with; 502 for the
+	 * others
+	 */
+	private static int chaincodeErrorStatus(final GatewayException e) {
+		List<String> messages = new ArrayList<>();
+		messages.add(e.getMessage());
+		e.getDetails().forEach(detail -> messages.add(detail.getMessage()));
+		for (String message : messages) {
+			for (Map.Entry<String, Integer> code : CHAINCODE_ERROR_STATUS.entrySet()) {
+				if (message != null && message.contains(code.getKey() + ": ")) {
+					return code.getValue();
+				}
+			}
+		}
+		return 502;
+	}
+
+	private static String details(final GatewayException e) {
+		StringBuilder details = new StringBuilder();
+		e.getDetails().forEach(detail -> details.append("; ").append(detail.getMspId()).append(": ")
+				.append(detail.getMessage()));
+		return details.toString();
+	}
+
+	private void error(final HttpExchange exchange, final int status, final String message) throws IOException {
+		failed.increment();
+		JsonObject error = new JsonObject();
+		error.addProperty("error", message);
+		respond(exchange, status, error.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+		int first = 0;
+		while (first < body.length && Character.isWhitespace(body[first])) {
+			first++;
+		}
+		boolean json = first < body.length && (body[first] == '{' || body[first] == '[');
+		exchange.getResponseHeaders().set("Content-Type",
+				json ? "application/json" : "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hyperledger.fabric.client.Contract;
+
+/**
+ * Drives {@code CreateTracking} transactions through a {@link SubmissionEngine} as fast as its window allows and
+ * reports the sustained throughput and the latency distribution.
+ * <p>
+ * With {@code hotKeys} set, the transactions are {@code UpdateTracking} calls spread over that many plants instead,
+ * like operators working on the same pallets. The plants are created and committed first, outside of the
+ * measurement. The updates go through a {@link KeyedSubmissionScheduler}, whose statistics show how many
+ * conflicted and were retried.
+ */
+final class LoadGenerator {
+
+	private final Contract contract;
+	private final int transactions;
+	private final int window;
+	private final int hotKeys;
+	private final PrintStream out;
+
+	LoadGenerator(final Contract contract, final int transactions, final int window, final int hotKeys,
+			final PrintStream out) {
+		this.contract = contract;
+		this.transactions = transactions;
+		this.window = window;
+		this.hotKeys = hotKeys;
+		this.out = out;
+	}
+
+	void run() throws InterruptedException {
+		String runId = Long.toString(System.currentTimeMillis(), 36).toUpperCase(Locale.ROOT);
+		LongAdder succeeded = new LongAdder();
+		LongAdder failed = new LongAdder();
+		if (hotKeys > 0) {
+			createHotPlants(runId);
+		}
+
+		out.printf("Submitting %d transactions with a window of %d%s%n", transactions, window,
+				hotKeys > 0 ? " over " + hotKeys + " plants" : "");
+		long start = System.nanoTime();
+		long lastReport = start;
+		long lastCompleted = 0;
+		KeyedSubmissionScheduler scheduler = new KeyedSubmissionScheduler(contract, window, window * 4,
+				KeyedSubmissionScheduler.DEFAULT_MAX_ATTEMPTS);
+		SubmissionEngine engine = scheduler.getEngine();
+		try (scheduler) {
+			for (int i = 0; i < transactions; i++) {
+				String gpsPosition = randomPosition();
+				CompletableFuture<byte[]> result = hotKeys > 0
+						? scheduler.submit("UpdateTracking", hotKey(runId, i % hotKeys), gpsPosition)
+						: scheduler.submit("CreateTracking", String.format("LOAD-%s-%08d", runId, i), "{}", gpsPosition);
+				result.whenComplete((value, error) -> (error == null ? succeeded : failed).increment());
+
+				long now = System.nanoTime();
+				if (now - lastReport >= TimeUnit.SECONDS.toNanos(1)) {
+					long completed = succeeded.sum() + failed.sum();
+					out.printf("  %6.1fs  %8.1f tx/s  in flight %d  queued %d  completed %d  failed %d  conflicts %d%n",
+							(now - start) / 1e9, (completed - lastCompleted) * 1e9 / (now - lastReport),
+							engine.getInFlight(), scheduler.getQueued(), completed, failed.sum(),
+							scheduler.getConflicts());
+					lastReport = now;
+					lastCompleted = completed;
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		out.printf("Completed %d transactions (%d failed) in %.2fs: %.1f tx/s%n", succeeded.sum() + failed.sum(),
+				failed.sum(), elapsed / 1e9, (succeeded.sum() + failed.sum()) * 1e9 / elapsed);
+		out.println("Latency " + engine.getLatency().summary());
+		out.println("Scheduler " + scheduler.stats());
+	}
+
+	/**
+	 * Creates the plants updated in hot-key mode and waits until they are committed, outside of the measurement.
+	 */
+	private void createHotPlants(final String runId) throws InterruptedException {
+		out.printf("Creating %d plants%n", hotKeys);
+		long start = System.nanoTime();
+		List<CompletableFuture<byte[]>> created = new ArrayList<>(hotKeys);
+		KeyedSubmissionScheduler scheduler = new KeyedSubmissionScheduler(contract, window, window * 4,
+				KeyedSubmissionScheduler.DEFAULT_MAX_ATTEMPTS);
+		try (scheduler) {
+			for (int i = 0; i < hotKeys; i++) {
+				created.add(scheduler.submit("CreateTracking", hotKey(runId, i), "{}", randomPosition()));
+			}
+		}
+		long failures = created.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+		if (failures > 0) {
+			throw new IllegalStateException(String.format("Failed to create %d of %d plants", failures, hotKeys));
+		}
+		out.printf("Created %d plants in %.2fs%n", hotKeys, (System.nanoTime() - start) / 1e9);
+	}
+
+	private static String hotKey(final String runId, final int index) {
+		return String.format("HOT-%s-%04d", runId, index);
+	}
+
+	private static String randomPosition() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return String.format(Locale.ROOT, "%.6f,%.6f", 44 + random.nextDouble(), 8 + random.nextDouble());
+	}
+}
@@ -0,0 +1,396 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+import org.hyperledger.fabric.client.CommitStatusException;
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.EndorseException;
+import org.hyperledger.fabric.client.GatewayException;
+import org.hyperledger.fabric.client.Proposal;
+import org.hyperledger.fabric.client.Status;
+import org.hyperledger.fabric.client.SubmitException;
+import org.hyperledger.fabric.client.SubmittedTransaction;
+import org.hyperledger.fabric.client.Transaction;
+import org.hyperledger.fabric.protos.peer.TxValidationCode;
+
+import io.grpc.CallOptions;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * In-process stand-in for a Fabric Gateway peer and ordering service, to exercise client code without a network.
+ * <p>
+ * Endorsement and evaluation take {@code endorseMillis} (with some jitter) on the calling thread. Submitted
+ * transactions are cut into blocks like an orderer does: a block closes when it holds {@code maxBlockSize}
+ * transactions or {@code blockMillis} after its first transaction arrived. Blocks are validated in order with a
+ * simplified MVCC check: every transaction reads and writes the key given as its first argument, and it is
+ * invalidated with {@code MVCC_READ_CONFLICT} if a transaction committed earlier changed that key since it was
+ * endorsed. No chaincode runs; results are a short text naming the transaction.
+ */
+final class LocalGateway implements AutoCloseable {
+
+	static final String CHAINCODE_NAME = "basic";
+
+	private final long endorseMillis;
+	private final long blockMillis;
+	private final int maxBlockSize;
+
+	private final Map<String, Long> versions = new ConcurrentHashMap<>();
+	private final BlockingQueue<LocalTransaction> pending = new LinkedBlockingQueue<>();
+	private final AtomicLong transactionIds = new AtomicLong();
+	private final Thread orderer;
+	private volatile boolean closed;
+	private long blockNumber;
+
+	LocalGateway(final long endorseMillis, final long blockMillis, final int maxBlockSize) {
+		this.endorseMillis = endorseMillis;
+		this.blockMillis = blockMillis;
+		this.maxBlockSize = maxBlockSize;
+		this.orderer = new Thread(this::cutBlocks, "local-orderer");
+		this.orderer.setDaemon(true);
+		this.orderer.start();
+	}
+
+	Contract getContract() {
+		return new LocalContract();
+	}
+
+	/**
+	 * @return blocks committed so far
+	 */
+	synchronized long getBlockHeight() {
+		return blockNumber;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		orderer.interrupt();
+	}
+
+	private void cutBlocks() {
+		try {
+			while (!closed) {
+				List<LocalTransaction> block = new ArrayList<>(maxBlockSize);
+				block.add(pending.take());
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockMillis);
+				while (block.size() < maxBlockSize) {
+					LocalTransaction next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					block.add(next);
+				}
+				commit(block);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized void commit(final List<LocalTransaction> block) {
+		blockNumber++;
+		for (LocalTransaction transaction : block) {
+			long current = versions.getOrDefault(transaction.key, 0L);
+			TxValidationCode code;
+			if (current == transaction.readVersion) {
+				versions.put(transaction.key, current + 1);
+				code = TxValidationCode.VALID;
+			} else {
+				code = TxValidationCode.MVCC_READ_CONFLICT;
+			}
+			transaction.status.complete(new LocalStatus(transaction.transactionId, blockNumber, code));
+		}
+	}
+
+	private void simulateLatency() {
+		long jitter = endorseMillis / 4;
+		long millis = endorseMillis + (jitter == 0 ? 0 : ThreadLocalRandom.current().nextLong(-jitter, jitter + 1));
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static StatusRuntimeException unavailable(final String message) {
+		return io.grpc.Status.UNAVAILABLE.withDescription(message).asRuntimeException();
+	}
+
+	private final class LocalContract implements Contract {
+
+		@Override
+		public String getChaincodeName() {
+			return CHAINCODE_NAME;
+		}
+
+		@Override
+		public Optional<String> getContractName() {
+			return Optional.empty();
+		}
+
+		@Override
+		public byte[] submitTransaction(final String name) throws EndorseException, SubmitException,
+				CommitStatusException {
+			return submitTransaction(name, new String[0]);
+		}
+
+		/**
+		 * Invalid transactions are reported as a {@link SubmitException} with status {@code ABORTED}, since the
+		 * gateway's {@code CommitException} cannot be created outside of it.
+		 */
+		@Override
+		public byte[] submitTransaction(final String name, final String... args) throws EndorseException,
+				SubmitException, CommitStatusException {
+			SubmittedTransaction submitted = newProposal(name).addArguments(args).build().endorse().submitAsync();
+			Status status = submitted.getStatus();
+			if (!status.isSuccessful()) {
+				throw new SubmitException("Transaction " + status.getTransactionId() + " failed to commit with status code "
+						+ status.getCode(), io.grpc.Status.ABORTED.asRuntimeException());
+			}
+			return submitted.getResult();
+		}
+
+		@Override
+		public byte[] submitTransaction(final String name, final byte[]... args) throws EndorseException,
+				SubmitException, CommitStatusException {
+			return submitTransaction(name, toStrings(args));
+		}
+
+		@Override
+		public byte[] evaluateTransaction(final String name) throws GatewayException {
+			return evaluateTransaction(name, new String[0]);
+		}
+
+		@Override
+		public byte[] evaluateTransaction(final String name, final String... args) throws GatewayException {
+			return newProposal(name).addArguments(args).build().evaluate();
+		}
+
+		@Override
+		public byte[] evaluateTransaction(final String name, final byte[]... args) throws GatewayException {
+			return evaluateTransaction(name, toStrings(args));
+		}
+
+		@Override
+		public Proposal.Builder newProposal(final String name) {
+			return new LocalProposalBuilder(name);
+		}
+
+		private String[] toStrings(final byte[]... args) {
+			return Arrays.stream(args).map(arg -> new String(arg, StandardCharsets.UTF_8)).toArray(String[]::new);
+		}
+	}
+
+	private final class LocalProposalBuilder implements Proposal.Builder {
+
+		private final String name;
+		private final List<String> args = new ArrayList<>();
+
+		LocalProposalBuilder(final String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Proposal.Builder addArguments(final byte[]... arguments) {
+			for (byte[] argument : arguments) {
+				args.add(new String(argument, StandardCharsets.UTF_8));
+			}
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder addArguments(final String... arguments) {
+			args.addAll(Arrays.asList(arguments));
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder putAllTransient(final Map<String, byte[]> transientData) {
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder putTransient(final String key, final byte[] value) {
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder putTransient(final String key, final String value) {
+			return this;
+		}
+
+		@Override
+		public Proposal.Builder setEndorsingOrganizations(final String... mspids) {
+			return this;
+		}
+
+		@Override
+		public Proposal build() {
+			return new LocalProposal(String.format("%064x", transactionIds.incrementAndGet()), name,
+					args.toArray(new String[0]));
+		}
+	}
+
+	private final class LocalProposal implements Proposal {
+
+		private final String transactionId;
+		private final String name;
+		private final String[] args;
+
+		LocalProposal(final String transactionId, final String name, final String[] args) {
+			this.transactionId = transactionId;
+			this.name = name;
+			this.args = args;
+		}
+
+		@Override
+		public String getTransactionId() {
+			return transactionId;
+		}
+
+		@Override
+		public byte[] evaluate(final UnaryOperator<CallOptions> options) throws GatewayException {
+			if (closed) {
+				throw new GatewayException(unavailable("Gateway closed"));
+			}
+			simulateLatency();
+			String key = args.length == 0 ? "" : args[0];
+			return String.format("{\"function\":\"%s\",\"key\":\"%s\",\"version\":%d}",
+					name, key, versions.getOrDefault(key, 0L)).getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public Transaction endorse(final UnaryOperator<CallOptions> options) throws EndorseException {
+			if (closed) {
+				throw new EndorseException(transactionId, unavailable("Gateway closed"));
+			}
+			simulateLatency();
+			String key = args.length == 0 ? "" : args[0];
+			byte[] result = (name + " " + key + " endorsed").getBytes(StandardCharsets.UTF_8);
+			return new LocalTransaction(transactionId, key, versions.getOrDefault(key, 0L), result);
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return transactionId.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public byte[] getDigest() {
+			return getBytes();
+		}
+	}
+
+	private final class LocalTransaction implements Transaction, SubmittedTransaction {
+
+		private final String transactionId;
+		private final String key;
+		private final long readVersion;
+		private final byte[] result;
+		private final CompletableFuture<Status> status = new CompletableFuture<>();
+
+		LocalTransaction(final String transactionId, final String key, final long readVersion, final byte[] result) {
+			this.transactionId = transactionId;
+			this.key = key;
+			this.readVersion = readVersion;
+			this.result = result;
+		}
+
+		@Override
+		public byte[] getResult() {
+			return result;
+		}
+
+		@Override
+		public String getTransactionId() {
+			return transactionId;
+		}
+
+		@Override
+		public byte[] submit(final UnaryOperator<CallOptions> options) throws SubmitException, CommitStatusException {
+			SubmittedTransaction submitted = submitAsync(options);
+			Status committed = submitted.getStatus();
+			if (!committed.isSuccessful()) {
+				throw new SubmitException("Transaction " + transactionId + " failed to commit with status code "
+						+ committed.getCode(), io.grpc.Status.ABORTED.asRuntimeException());
+			}
+			return result;
+		}
+
+		@Override
+		public SubmittedTransaction submitAsync(final UnaryOperator<CallOptions> options) throws SubmitException {
+			if (closed) {
+				throw new SubmitException(transactionId, unavailable("Gateway closed"));
+			}
+			pending.add(this);
+			return this;
+		}
+
+		@Override
+		public Status getStatus(final UnaryOperator<CallOptions> options) throws CommitStatusException {
+			try {
+				return status.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CommitStatusException(transactionId, io.grpc.Status.CANCELLED.asRuntimeException());
+			} catch (ExecutionException e) {
+				throw new CommitStatusException(transactionId, unavailable(e.getCause().getMessage()));
+			}
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return transactionId.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public byte[] getDigest() {
+			return getBytes();
+		}
+	}
+
+	private static final class LocalStatus implements Status {
+
+		private final String transactionId;
+		private final long blockNumber;
+		private final TxValidationCode code;
+
+		LocalStatus(final String transactionId, final long blockNumber, final TxValidationCode code) {
+			this.transactionId = transactionId;
+			this.blockNumber = blockNumber;
+			this.code = code;
+		}
+
+		@Override
+		public String getTransactionId() {
+			return transactionId;
+		}
+
+		@Override
+		public long getBlockNumber() {
+			return blockNumber;
+		}
+
+		@Override
+		public TxValidationCode getCode() {
+			return code;
+		}
+
+		@Override
+		public boolean isSuccessful() {
+			return code == TxValidationCode.VALID;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.fabric.client.identity.Identity;
+import org.hyperledger.fabric.client.identity.Signer;
+import org.hyperledger.fabric.protos.gateway.EvaluateRequest;
+import org.hyperledger.fabric.protos.gateway.EvaluateResponse;
+import org.hyperledger.fabric.protos.gateway.GatewayGrpc;
+import org.hyperledger.fabric.protos.peer.Response;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * In-process stand-in for one Gateway peer, to exercise {@link PeerPool} without a network.
+ * <p>
+ * Only evaluations are served. They answer after {@code latencyMillis} (with some jitter) with the peer's name as the
+ * result, or fail with {@code UNAVAILABLE} while the peer is set to fail. Both can be changed while it runs. The
+ * stand-in checks no signatures, so {@link #IDENTITY} and {@link #SIGNER} are enough to connect a Gateway to it.
+ */
+final class LocalPeer implements AutoCloseable {
+
+	static final Identity IDENTITY = new Identity() {
+		@Override
+		public String getMspId() {
+			return "LocalMSP";
+		}
+
+		@Override
+		public byte[] getCredentials() {
+			return "local".getBytes(StandardCharsets.UTF_8);
+		}
+	};
+
+	static final Signer SIGNER = digest -> new byte[0];
+
+	private final String name;
+	private final Server server;
+	private final ScheduledExecutorService responder;
+	private volatile long latencyMillis;
+	private volatile boolean failing;
+
+	LocalPeer(final String name, final long latencyMillis) throws IOException {
+		this.name = name;
+		this.latencyMillis = latencyMillis;
+		this.responder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name + "-responder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = InProcessServerBuilder.forName(name)
+				.addService(new GatewayGrpc.GatewayImplBase() {
+					@Override
+					public void evaluate(final EvaluateRequest request, final StreamObserver<EvaluateResponse> response) {
+						respond(response);
+					}
+				})
+				.build()
+				.start();
+	}
+
+	ManagedChannel newChannel() {
+		return InProcessChannelBuilder.forName(name).build();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	void setLatencyMillis(final long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	void setFailing(final boolean failing) {
+		this.failing = failing;
+	}
+
+	@Override
+	public void close() {
+		server.shutdownNow();
+		responder.shutdownNow();
+	}
+
+	private void respond(final StreamObserver<EvaluateResponse> response) {
+		// scheduled rather than slept, so that a slow peer still takes any number of calls at once
+		long delayMicros = (long) (latencyMillis * 1000 * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+		responder.schedule(() -> {
+			if (failing) {
+				response.onError(Status.UNAVAILABLE.withDescription(name + " is down").asRuntimeException());
+				return;
+			}
+			response.onNext(EvaluateResponse.newBuilder()
+					.setResult(Response.newBuilder().setStatus(200).setPayload(ByteString.copyFromUtf8(name)))
+					.build());
+			response.onCompleted();
+		}, delayMicros, TimeUnit.MICROSECONDS);
+	}
+}
@@ -0,0 +1,310 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hyperledger.fabric.protos.gateway.GatewayGrpc;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ChannelCredentials;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Grpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * gRPC channel over several Gateway peers of an organization, to be passed to {@code Gateway.Builder.connection}.
+ * <p>
+ * Evaluations go to the active peer with the fewest outstanding calls, so a slow peer is naturally given less work.
+ * Everything else (endorse, submit, commit status, event streams) sticks to the first available peer. A peer is
+ * ejected for a while after {@value #CONSECUTIVE_ERRORS} consecutive transport errors, or when its average latency is
+ * {@value #LATENCY_FACTOR} times the median of the other peers; each further ejection lasts longer. Standby peers
+ * only take calls while active peers are ejected, one for each, and are kept connected meanwhile so that taking over
+ * does not start with a TLS handshake. At least one peer always stays available: the pool never ejects its last one.
+ */
+final class PeerPool extends Channel implements AutoCloseable {
+
+	private static final int CONSECUTIVE_ERRORS = 5;
+	private static final double LATENCY_FACTOR = 3;
+	// latencies below this are never outliers, whatever the ratio
+	private static final long MIN_OUTLIER_MICROS = 20_000;
+	private static final int MIN_SAMPLES = 20;
+	private static final double LATENCY_WEIGHT = 0.1;
+	private static final long BASE_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final int MAX_EJECTION_MULTIPLIER = 6;
+	private static final long KEEP_WARM_SECONDS = 5;
+
+	private static final String EVALUATE_METHOD = GatewayGrpc.getEvaluateMethod().getFullMethodName();
+
+	private static final class Endpoint {
+		final String name;
+		final ManagedChannel channel;
+		final boolean standby;
+		final AtomicInteger outstanding = new AtomicInteger();
+
+		// guarded by the pool
+		long calls;
+		long errors;
+		int consecutiveErrors;
+		long samples;
+		double latencyMicros;
+		int ejections;
+		boolean ejected;
+		long ejectedUntil;
+
+		Endpoint(final String name, final ManagedChannel channel, final boolean standby) {
+			this.name = name;
+			this.channel = channel;
+			this.standby = standby;
+		}
+	}
+
+	// active peers first, then the standby ones
+	private final List<Endpoint> endpoints = new ArrayList<>();
+	private final AtomicInteger rotation = new AtomicInteger();
+	private final ScheduledExecutorService keepWarm;
+
+	/**
+	 * @param active  the peers to spread the calls over, by name
+	 * @param standby the peers that take over for ejected active ones, by name
+	 */
+	PeerPool(final Map<String, ManagedChannel> active, final Map<String, ManagedChannel> standby) {
+		if (active.isEmpty()) {
+			throw new IllegalArgumentException("At least one active peer is required");
+		}
+		active.forEach((name, channel) -> endpoints.add(new Endpoint(name, channel, false)));
+		standby.forEach((name, channel) -> endpoints.add(new Endpoint(name, channel, true)));
+
+		keepWarm = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "peer-pool-keep-warm");
+			thread.setDaemon(true);
+			return thread;
+		});
+		keepWarm.scheduleWithFixedDelay(this::keepWarm, 0, KEEP_WARM_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Connects to the peers listed as {@code host:port[=authority]}, comma separated, where the authority overrides
+	 * the host name the TLS certificate is checked against.
+	 */
+	static PeerPool connect(final String active, final String standby, final ChannelCredentials credentials) {
+		return new PeerPool(channels(active, credentials), channels(standby, credentials));
+	}
+
+	private static Map<String, ManagedChannel> channels(final String endpoints, final ChannelCredentials credentials) {
+		Map<String, ManagedChannel> channels = new LinkedHashMap<>();
+		for (String endpoint : endpoints.split(",")) {
+			if (endpoint.isBlank()) {
+				continue;
+			}
+			String[] target = endpoint.trim().split("=", 2);
+			ManagedChannelBuilder<?> builder = Grpc.newChannelBuilder(target[0], credentials);
+			if (target.length > 1) {
+				builder.overrideAuthority(target[1]);
+			}
+			channels.put(target[0], builder.build());
+		}
+		return channels;
+	}
+
+	@Override
+	public <Q, R> ClientCall<Q, R> newCall(final MethodDescriptor<Q, R> method, final CallOptions options) {
+		Endpoint endpoint = pick(EVALUATE_METHOD.equals(method.getFullMethodName()));
+		// streams stay open for as long as the caller listens, their duration says nothing about the peer
+		boolean unary = method.getType() == MethodDescriptor.MethodType.UNARY;
+		return new ForwardingClientCall.SimpleForwardingClientCall<Q, R>(endpoint.channel.newCall(method, options)) {
+			@Override
+			public void start(final Listener<R> listener, final Metadata headers) {
+				long start = System.nanoTime();
+				endpoint.outstanding.incrementAndGet();
+				super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<R>(listener) {
+					@Override
+					public void onClose(final Status status, final Metadata trailers) {
+						endpoint.outstanding.decrementAndGet();
+						completed(endpoint, status, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), unary);
+						super.onClose(status, trailers);
+					}
+				}, headers);
+			}
+		};
+	}
+
+	@Override
+	public String authority() {
+		return endpoints.get(0).channel.authority();
+	}
+
+	/**
+	 * @return one line per peer, e.g. {@code localhost:7051 active outstanding 3 calls 1200 errors 0 latency 4.1ms}
+	 */
+	synchronized String stats() {
+		long now = System.nanoTime();
+		List<Endpoint> routable = routable(now);
+		StringBuilder stats = new StringBuilder();
+		for (Endpoint endpoint : endpoints) {
+			String state = endpoint.ejected
+					? String.format(Locale.ROOT, "ejected for %ds", TimeUnit.NANOSECONDS.toSeconds(endpoint.ejectedUntil - now))
+					: endpoint.standby ? routable.contains(endpoint) ? "standby serving" : "standby" : "active";
+			stats.append(String.format(Locale.ROOT, "%s %s outstanding %d calls %d errors %d latency %s ejections %d%n",
+					endpoint.name, state, endpoint.outstanding.get(), endpoint.calls, endpoint.errors,
+					LatencyHistogram.format((long) endpoint.latencyMicros), endpoint.ejections));
+		}
+		return stats.toString();
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		keepWarm.shutdownNow();
+		for (Endpoint endpoint : endpoints) {
+			endpoint.channel.shutdownNow();
+		}
+		for (Endpoint endpoint : endpoints) {
+			endpoint.channel.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	private Endpoint pick(final boolean evaluate) {
+		List<Endpoint> routable;
+		synchronized (this) {
+			routable = routable(System.nanoTime());
+		}
+		if (!evaluate) {
+			return routable.get(0);
+		}
+		// the scan starts at a rotating offset, so that ties do not all go to the first peer
+		int offset = Math.floorMod(rotation.getAndIncrement(), routable.size());
+		Endpoint best = null;
+		for (int i = 0; i < routable.size(); i++) {
+			Endpoint candidate = routable.get((offset + i) % routable.size());
+			if (best == null || candidate.outstanding.get() < best.outstanding.get()) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the available active peers plus a standby peer for each ejected one, never empty
+	 */
+	private List<Endpoint> routable(final long now) {
+		List<Endpoint> routable = new ArrayList<>(endpoints.size());
+		int replacements = 0;
+		for (Endpoint endpoint : endpoints) {
+			if (!endpoint.standby) {
+				if (isAvailable(endpoint, now)) {
+					routable.add(endpoint);
+				} else {
+					replacements++;
+				}
+			} else if (replacements > 0 && isAvailable(endpoint, now)) {
+				routable.add(endpoint);
+				replacements--;
+			}
+		}
+		if (routable.isEmpty()) {
+			// only reachable through standby peers ejected while serving; better the one back soonest than no peer
+			Endpoint soonest = endpoints.get(0);
+			for (Endpoint endpoint : endpoints) {
+				if (endpoint.ejectedUntil - soonest.ejectedUntil < 0) {
+					soonest = endpoint;
+				}
+			}
+			routable.add(soonest);
+		}
+		return routable;
+	}
+
+	private boolean isAvailable(final Endpoint endpoint, final long now) {
+		if (endpoint.ejected && now - endpoint.ejectedUntil >= 0) {
+			// back on probation: it is judged on fresh samples only
+			endpoint.ejected = false;
+			endpoint.consecutiveErrors = 0;
+			endpoint.samples = 0;
+			endpoint.latencyMicros = 0;
+		}
+		return !endpoint.ejected;
+	}
+
+	private synchronized void completed(final Endpoint endpoint, final Status status, final long micros,
+			final boolean unary) {
+		endpoint.calls++;
+		if (isPeerFailure(status)) {
+			endpoint.errors++;
+			if (++endpoint.consecutiveErrors >= CONSECUTIVE_ERRORS) {
+				eject(endpoint);
+			}
+			return;
+		}
+		endpoint.consecutiveErrors = 0;
+		if (!unary) {
+			return;
+		}
+		endpoint.latencyMicros = endpoint.samples++ == 0
+				? micros
+				: endpoint.latencyMicros + LATENCY_WEIGHT * (micros - endpoint.latencyMicros);
+		if (isLatencyOutlier(endpoint)) {
+			eject(endpoint);
+		}
+	}
+
+	private boolean isLatencyOutlier(final Endpoint endpoint) {
+		if (endpoint.samples < MIN_SAMPLES || endpoint.latencyMicros < MIN_OUTLIER_MICROS) {
+			return false;
+		}
+		long now = System.nanoTime();
+		double[] others = routable(now).stream()
+				.filter(other -> other != endpoint && other.samples >= MIN_SAMPLES)
+				.mapToDouble(other -> other.latencyMicros)
+				.sorted()
+				.toArray();
+		return others.length > 0 && endpoint.latencyMicros > LATENCY_FACTOR * median(others);
+	}
+
+	private void eject(final Endpoint endpoint) {
+		long now = System.nanoTime();
+		if (endpoint.ejected || endpoints.stream().noneMatch(other -> other != endpoint && isAvailable(other, now))) {
+			return;
+		}
+		endpoint.ejected = true;
+		endpoint.ejections++;
+		endpoint.ejectedUntil = now + BASE_EJECTION_NANOS * Math.min(endpoint.ejections, MAX_EJECTION_MULTIPLIER);
+	}
+
+	private void keepWarm() {
+		for (Endpoint endpoint : endpoints) {
+			// reconnects a channel that went idle, so that a standby peer is ready when it has to serve
+			endpoint.channel.getState(true);
+		}
+	}
+
+	/**
+	 * Application errors such as a failing chaincode say nothing about the peer and do not count.
+	 */
+	private static boolean isPeerFailure(final Status status) {
+		switch (status.getCode()) {
+			case UNAVAILABLE:
+			case DEADLINE_EXCEEDED:
+			case RESOURCE_EXHAUSTED:
+			case INTERNAL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static double median(final double[] sorted) {
+		int middle = sorted.length / 2;
+		return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+	}
+}
@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.Gateway;
+import org.hyperledger.fabric.client.GatewayException;
+
+import io.grpc.ManagedChannel;
+
+/**
+ * Drives evaluations through a {@link PeerPool} of {@link LocalPeer} stand-ins and reports which peers served them,
+ * the latency distribution and the pool's view of each peer.
+ * <p>
+ * Peers are given as latencies in milliseconds, or {@code x} for a peer that fails every call. With e.g.
+ * {@code 5,5,60,x} and a standby of {@code 5}, the slow peer gets fewer calls, then both it and the failing one are
+ * ejected and the standby serves in their place.
+ */
+final class PeerPoolLoad {
+
+	private final List<String> active;
+	private final List<String> standby;
+	private final int requests;
+	private final int window;
+	private final PrintStream out;
+
+	PeerPoolLoad(final List<String> active, final List<String> standby, final int requests, final int window,
+			final PrintStream out) {
+		this.active = active;
+		this.standby = standby;
+		this.requests = requests;
+		this.window = window;
+		this.out = out;
+	}
+
+	void run() throws IOException, InterruptedException {
+		List<LocalPeer> peers = new ArrayList<>();
+		Map<String, ManagedChannel> activeChannels = new LinkedHashMap<>();
+		Map<String, ManagedChannel> standbyChannels = new LinkedHashMap<>();
+		try {
+			for (String latency : active) {
+				LocalPeer peer = start(peers, "peer" + peers.size(), latency);
+				activeChannels.put(describe(peer, latency), peer.newChannel());
+			}
+			for (String latency : standby) {
+				LocalPeer peer = start(peers, "standby" + peers.size(), latency);
+				standbyChannels.put(describe(peer, latency), peer.newChannel());
+			}
+			try (PeerPool pool = new PeerPool(activeChannels, standbyChannels);
+					Gateway gateway = Gateway.newInstance()
+							.identity(LocalPeer.IDENTITY)
+							.signer(LocalPeer.SIGNER)
+							.connection(pool)
+							.evaluateOptions(options -> options.withDeadlineAfter(5, TimeUnit.SECONDS))
+							.connect()) {
+				exercise(gateway.getNetwork("local").getContract(LocalGateway.CHAINCODE_NAME));
+				out.print(pool.stats());
+			}
+		} finally {
+			peers.forEach(LocalPeer::close);
+		}
+	}
+
+	private void exercise(final Contract contract) throws InterruptedException {
+		Map<String, LongAdder> served = new ConcurrentHashMap<>();
+		LongAdder failed = new LongAdder();
+		LatencyHistogram latency = new LatencyHistogram();
+		AtomicInteger issued = new AtomicInteger();
+
+		out.printf("Evaluating %d times with a window of %d over peers %s, standby %s%n", requests, window, active,
+				standby);
+		long start = System.nanoTime();
+		ExecutorService workers = Executors.newFixedThreadPool(window);
+		for (int i = 0; i < window; i++) {
+			workers.execute(() -> {
+				while (issued.getAndIncrement() < requests) {
+					long begin = System.nanoTime();
+					try {
+						String peer = new String(contract.evaluateTransaction("GetStatistics"), StandardCharsets.UTF_8);
+						served.computeIfAbsent(peer, key -> new LongAdder()).increment();
+					} catch (GatewayException e) {
+						failed.increment();
+					}
+					latency.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.HOURS);
+		long elapsed = System.nanoTime() - start;
+
+		long completed = latency.getCount();
+		out.printf("Completed %d evaluations (%d failed) in %.2fs: %.1f/s%n", completed, failed.sum(), elapsed / 1e9,
+				completed * 1e9 / elapsed);
+		out.println("Latency " + latency.summary());
+		out.println("Served by " + new TreeMap<>(served));
+	}
+
+	private static String describe(final LocalPeer peer, final String latency) {
+		return peer.getName() + ("x".equals(latency) ? " (down)" : " (" + latency + "ms)");
+	}
+
+	private static LocalPeer start(final List<LocalPeer> peers, final String name, final String latency)
+			throws IOException {
+		LocalPeer peer = new LocalPeer(name, "x".equals(latency) ? 0 : Long.parseLong(latency));
+		peer.setFailing("x".equals(latency));
+		peers.add(peer);
+		return peer;
+	}
+}
@@ -0,0 +1,77 @@
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of a {@link LedgerService} backed by a {@link LocalGateway}, with {@code concurrency}
+ * requests in flight at all times.
+ * <p>
+ * The requests evaluate {@code GetActualTracking} over {@code keys} plants, so a small number of keys shows what
+ * coalescing saves and a large one what the service sustains without it. With the stand-in's 20ms per evaluation,
+ * a pool of platform threads caps the throughput at its size times 50 per second; virtual threads do not.
+ */
+final class ServiceLoad {
+
+	private final int requests;
+	private final int concurrency;
+	private final int keys;
+	private final int maxThreads;
+	private final PrintStream out;
+
+	ServiceLoad(final int requests, final int concurrency, final int keys, final int maxThreads,
+			final PrintStream out) {
+		this.requests = requests;
+		this.concurrency = concurrency;
+		this.keys = keys;
+		this.maxThreads = maxThreads;
+		this.out = out;
+	}
+
+	void run(final LocalGateway gateway, final BlobStore blobs) throws Exception {
+		try (LedgerService service = new LedgerService(Map.of("org1", gateway.getContract()), blobs,
+				InetAddress.getLoopbackAddress(), 0, maxThreads)) {
+			service.start();
+			ExecutorService clientExecutor = LedgerService.newRequestExecutor(maxThreads);
+			HttpClient client = HttpClient.newBuilder()
+					.executor(clientExecutor)
+					.connectTimeout(Duration.ofSeconds(5))
+					.build();
+			String base = "http://localhost:" + service.getPort() + "/org1/GetActualTracking?qr=BENCH-";
+
+			LatencyHistogram latency = new LatencyHistogram();
+			LongAdder failed = new LongAdder();
+			Semaphore window = new Semaphore(concurrency);
+			out.printf("Sending %d requests, %d at a time, over %d plants%n", requests, concurrency, keys);
+			long start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				window.acquire();
+				long begin = System.nanoTime();
+				HttpRequest request = HttpRequest.newBuilder(URI.create(base + (i % keys))).GET().build();
+				client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+					if (error != null || response.statusCode() != 200) {
+						failed.increment();
+					}
+					latency.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+					window.release();
+				});
+			}
+			window.acquire(concurrency);
+			long elapsed = System.nanoTime() - start;
+			clientExecutor.shutdownNow();
+
+			out.printf("Completed %d requests (%d failed) in %.2fs: %.1f requests/s%n", latency.getCount(),
+					failed.sum(), elapsed / 1e9, latency.getCount() * 1e9 / elapsed);
+			out.println("Latency " + latency.summary());
+			out.println("Service " + service.stats());
+		}
+	}
+}
@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperledger.fabric.client.CloseableIterator;
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.GatewayException;
+import org.hyperledger.fabric.client.Network;
+import org.hyperledger.fabric.protos.common.Block;
+import org.hyperledger.fabric.protos.common.BlockMetadataIndex;
+import org.hyperledger.fabric.protos.common.BlockchainInfo;
+import org.hyperledger.fabric.protos.common.ChannelHeader;
+import org.hyperledger.fabric.protos.common.Envelope;
+import org.hyperledger.fabric.protos.common.HeaderType;
+import org.hyperledger.fabric.protos.common.Payload;
+import org.hyperledger.fabric.protos.peer.ChaincodeAction;
+import org.hyperledger.fabric.protos.peer.ChaincodeActionPayload;
+import org.hyperledger.fabric.protos.peer.ChaincodeEvent;
+import org.hyperledger.fabric.protos.peer.ProposalResponsePayload;
+import org.hyperledger.fabric.protos.peer.Transaction;
+import org.hyperledger.fabric.protos.peer.TransactionAction;
+import org.hyperledger.fabric.protos.peer.TxValidationCode;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Exports the world state of the chaincode to a {@link ColumnarSnapshot} file and keeps it up to date.
+ * <p>
+ * The first run pages through {@code ExportTracking}. Later runs only replay the {@value TrackingView#TRACKING_EVENT}
+ * events of the blocks from the snapshot's checkpoint block up to the current chain height, so a refresh costs the
+ * peers in proportion to the changes rather than the number of plants. The events do not carry extraInfo; it is
+ * evaluated for the plants created since the last snapshot only.
+ */
+final class SnapshotExporter {
+
+	/**
+	 * The block stream never ends by itself; the replay stops at the chain height, or earlier, without losing any
+	 * change, when the peer delivers no block for this long.
+	 */
+	private static final long BLOCK_IDLE_MILLIS = 30_000;
+
+	private final Network network;
+	private final Contract contract;
+	private final String chaincodeName;
+	private final Path file;
+	private final int pageSize;
+	private final PrintStream out;
+
+	SnapshotExporter(final Network network, final String chaincodeName, final Path file, final int pageSize,
+			final PrintStream out) {
+		this.network = network;
+		this.contract = network.getContract(chaincodeName);
+		this.chaincodeName = chaincodeName;
+		this.file = file;
+		this.pageSize = pageSize;
+		this.out = out;
+	}
+
+	void run() throws IOException, GatewayException, InterruptedException {
+		long start = System.nanoTime();
+		long height = blockHeight();
+		Map<String, ColumnarSnapshot.Row> rows;
+		long checkpointBlock;
+		if (Files.exists(file)) {
+			try (ColumnarSnapshot snapshot = ColumnarSnapshot.open(file)) {
+				checkpointBlock = snapshot.getCheckpointBlock();
+				rows = new HashMap<>();
+				for (ColumnarSnapshot.Row row : snapshot.readAll()) {
+					rows.put(row.qr, row);
+				}
+			}
+			if (checkpointBlock >= height) {
+				out.printf("%s is up to date at block %d%n", file, height - 1);
+				return;
+			}
+			checkpointBlock = replay(rows, checkpointBlock, height);
+		} else {
+			rows = export(height);
+			// changes committed while the pages were read are replayed by the next run
+			checkpointBlock = height;
+		}
+
+		ColumnarSnapshot.write(file, checkpointBlock, rows.values());
+		out.printf("Wrote %d plants to %s (%d bytes) up to block %d in %.2fs%n", rows.size(), file, Files.size(file),
+				checkpointBlock - 1, (System.nanoTime() - start) / 1e9);
+	}
+
+	private Map<String, ColumnarSnapshot.Row> export(final long height) throws GatewayException {
+		Map<String, ColumnarSnapshot.Row> rows = new HashMap<>();
+		String bookmark = "";
+		do {
+			JsonObject page = JsonParser.parseString(new String(contract.evaluateTransaction("ExportTracking",
+					Integer.toString(pageSize), bookmark), StandardCharsets.UTF_8)).getAsJsonObject();
+			for (JsonElement record : page.getAsJsonArray("records")) {
+				JsonObject basil = record.getAsJsonObject().getAsJsonObject("basil");
+				JsonElement basilLeg = record.getAsJsonObject().get("basilLeg");
+				JsonObject leg = basilLeg.isJsonNull() ? null : basilLeg.getAsJsonObject();
+				String qr = string(basil, "qr");
+				rows.put(qr, row(qr, string(basil, "owner"), string(basil, "extraInfo"),
+						leg == null ? string(basil, "basilLeg") : string(leg, "id"),
+						leg == null ? null : string(leg, "gpsPosition"),
+						leg == null ? 0 : leg.get("timestamp").getAsLong(), height - 1));
+			}
+			bookmark = string(page, "bookmark");
+			out.printf("  exported %d plants%n", rows.size());
+		} while (bookmark != null && !bookmark.isEmpty());
+		return rows;
+	}
+
+	/**
+	 * Applies the tracking events of the blocks from {@code fromBlock} up to {@code height - 1}. The blocks are read
+	 * rather than the chaincode events, so that the replay knows when it has seen every block, including the blocks
+	 * without any tracking event. If the peer stops delivering before, the checkpoint is the block after the last one
+	 * seen, and the next run resumes from there.
+	 *
+	 * @return the new checkpoint block
+	 */
+	private long replay(final Map<String, ColumnarSnapshot.Row> rows, final long fromBlock, final long height)
+			throws GatewayException, InterruptedException {
+		Set<String> created = new HashSet<>();
+		long lastBlock = fromBlock - 1;
+		int events = 0;
+
+		BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+		CloseableIterator<Block> stream = network.newBlockEventsRequest()
+				.startBlock(fromBlock)
+				.build()
+				.getEvents();
+		Thread reader = new Thread(() -> {
+			try {
+				while (stream.hasNext()) {
+					queue.put(stream.next());
+				}
+			} catch (Exception e) {
+				queue.offer(e);
+			}
+		}, "snapshot-blocks");
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			while (lastBlock < height - 1) {
+				Object next = queue.poll(BLOCK_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+				if (next == null) {
+					out.printf("  no block delivered for %dms, stopping at block %d of %d%n", BLOCK_IDLE_MILLIS,
+							lastBlock, height - 1);
+					break;
+				}
+				if (next instanceof Exception) {
+					throw new IllegalStateException("Block event stream failed", (Exception) next);
+				}
+				Block block = (Block) next;
+				long blockNumber = block.getHeader().getNumber();
+				for (ChaincodeEvent event : trackingEvents(block)) {
+					apply(rows, created, event.getPayload().toByteArray(), blockNumber);
+					events++;
+				}
+				lastBlock = blockNumber;
+			}
+		} finally {
+			stream.close();
+			reader.interrupt();
+		}
+
+		int fetched = 0;
+		for (String qr : created) {
+			ColumnarSnapshot.Row row = rows.get(qr);
+			if (row != null) {
+				JsonObject actual = JsonParser.parseString(new String(contract.evaluateTransaction("GetActualTracking", qr),
+						StandardCharsets.UTF_8)).getAsJsonObject();
+				rows.put(qr, new ColumnarSnapshot.Row(row.qr, row.owner, string(actual.getAsJsonObject("Basil"), "extraInfo"),
+						row.basilLeg, row.latitude, row.longitude, row.timestamp, row.blockNumber));
+				fetched++;
+			}
+		}
+		out.printf("  replayed %d tracking events of blocks %d to %d, fetched extraInfo of %d new plants%n", events,
+				fromBlock, lastBlock, fetched);
+		return lastBlock + 1;
+	}
+
+	/**
+	 * @return the {@value TrackingView#TRACKING_EVENT} events of the chaincode set by the valid transactions of the
+	 * block, in block order
+	 */
+	private List<ChaincodeEvent> trackingEvents(final Block block) {
+		List<ChaincodeEvent> events = new ArrayList<>();
+		ByteString validation = block.getMetadata().getMetadata(BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE);
+		try {
+			for (int i = 0; i < block.getData().getDataCount(); i++) {
+				if (i < validation.size() && validation.byteAt(i) != TxValidationCode.VALID_VALUE) {
+					continue;
+				}
+				Payload payload = Payload.parseFrom(Envelope.parseFrom(block.getData().getData(i)).getPayload());
+				ChannelHeader header = ChannelHeader.parseFrom(payload.getHeader().getChannelHeader());
+				if (header.getType() != HeaderType.ENDORSER_TRANSACTION_VALUE) {
+					continue;
+				}
+				for (TransactionAction action : Transaction.parseFrom(payload.getData()).getActionsList()) {
+					ChaincodeActionPayload actionPayload = ChaincodeActionPayload.parseFrom(action.getPayload());
+					ProposalResponsePayload response = ProposalResponsePayload.parseFrom(
+							actionPayload.getAction().getProposalResponsePayload());
+					ChaincodeEvent event = ChaincodeEvent.parseFrom(
+							ChaincodeAction.parseFrom(response.getExtension()).getEvents());
+					if (chaincodeName.equals(event.getChaincodeId())
+							&& TrackingView.TRACKING_EVENT.equals(event.getEventName())) {
+						events.add(event);
+					}
+				}
+			}
+		} catch (InvalidProtocolBufferException e) {
+			throw new IllegalStateException("Unexpected content of block " + block.getHeader().getNumber(), e);
+		}
+		return events;
+	}
+
+	private static void apply(final Map<String, ColumnarSnapshot.Row> rows, final Set<String> created,
+			final byte[] payload, final long blockNumber) {
+		JsonElement changes = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8));
+		for (JsonElement element : changes.getAsJsonArray()) {
+			JsonObject change = element.getAsJsonObject();
+			String qr = string(change, "qr");
+			ColumnarSnapshot.Row current = rows.get(qr);
+			switch (string(change, "op")) {
+				case "CREATE":
+					created.add(qr);
+					// fall through, the rest of a creation is an update
+				case "UPDATE":
+					rows.put(qr, row(qr, string(change, "owner"), current == null ? null : current.extraInfo,
+							string(change, "basilLeg"), string(change, "gpsPosition"),
+							change.get("timestamp").getAsLong(), blockNumber));
+					break;
+				case "TRANSFER":
+					if (current != null) {
+						rows.put(qr, new ColumnarSnapshot.Row(qr, string(change, "owner"), current.extraInfo,
+								current.basilLeg, current.latitude, current.longitude, current.timestamp,
+								blockNumber));
+					}
+					break;
+				case "STOP":
+					rows.remove(qr);
+					created.remove(qr);
+					break;
+				default:
+					// changes of a newer chaincode version
+					break;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of blocks of the channel, i.e. the number of the next block
+	 */
+	private long blockHeight() throws GatewayException {
+		byte[] info = network.getContract("qscc").evaluateTransaction("GetChainInfo", network.getName());
+		try {
+			return BlockchainInfo.parseFrom(info).getHeight();
+		} catch (InvalidProtocolBufferException e) {
+			throw new IllegalStateException("Unexpected GetChainInfo response", e);
+		}
+	}
+
+	private static ColumnarSnapshot.Row row(final String qr, final String owner, final String extraInfo,
+			final String basilLeg, final String gpsPosition, final long timestamp, final long blockNumber) {
+		double latitude = Double.NaN;
+		double longitude = Double.NaN;
+		if (gpsPosition != null) {
+			String[] parts = gpsPosition.split(",");
+			if (parts.length == 2) {
+				try {
+					latitude = Double.parseDouble(parts[0].trim());
+					longitude = Double.parseDouble(parts[1].trim());
+				} catch (NumberFormatException e) {
+					latitude = Double.NaN;
+					longitude = Double.NaN;
+				}
+			}
+		}
+		return new ColumnarSnapshot.Row(qr, owner, extraInfo, basilLeg, latitude, longitude, timestamp, blockNumber);
+	}
+
+	private static String string(final JsonObject object, final String name) {
+		JsonElement value = object.get(name);
+		return value == null || value.isJsonNull() ? null : value.getAsString();
+	}
+}
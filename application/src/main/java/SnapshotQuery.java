@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filters a {@link ColumnarSnapshot} by owner, leg time and region.
+ * <p>
+ * Row groups whose timestamp or position range cannot match are skipped from the footer alone. The others are
+ * scanned in parallel, one task per row group: the filter columns are inflated first, and the output columns only
+ * for groups that have matches.
+ */
+final class SnapshotQuery {
+
+	private final ColumnarSnapshot snapshot;
+	private String owner;
+	private long fromTimestamp = Long.MIN_VALUE;
+	private long toTimestamp = Long.MAX_VALUE;
+	private double[] boundingBox;
+
+	private final LongAdder scannedGroups = new LongAdder();
+	private final LongAdder skippedGroups = new LongAdder();
+
+	SnapshotQuery(final ColumnarSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	SnapshotQuery owner(final String owner) {
+		this.owner = owner;
+		return this;
+	}
+
+	/**
+	 * Keeps the plants whose current leg was recorded between the epoch seconds, inclusive.
+	 */
+	SnapshotQuery between(final long fromTimestamp, final long toTimestamp) {
+		this.fromTimestamp = fromTimestamp;
+		this.toTimestamp = toTimestamp;
+		return this;
+	}
+
+	SnapshotQuery inside(final double minLatitude, final double minLongitude, final double maxLatitude,
+			final double maxLongitude) {
+		this.boundingBox = new double[] {minLatitude, minLongitude, maxLatitude, maxLongitude};
+		return this;
+	}
+
+	/**
+	 * Runs the query on {@code threads} threads.
+	 *
+	 * @return the matching rows, without the extraInfo and leg key columns, in timestamp order
+	 */
+	List<ColumnarSnapshot.Row> run(final int threads) throws IOException, InterruptedException {
+		List<ColumnarSnapshot.RowGroup> groups = snapshot.getRowGroups();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<List<ColumnarSnapshot.Row>>> results = new ArrayList<>(groups.size());
+			for (ColumnarSnapshot.RowGroup group : groups) {
+				results.add(executor.submit(() -> scan(group)));
+			}
+			List<ColumnarSnapshot.Row> rows = new ArrayList<>();
+			for (Future<List<ColumnarSnapshot.Row>> result : results) {
+				rows.addAll(result.get());
+			}
+			return rows;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Snapshot scan failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return e.g. {@code scanned 12 of 16 row groups}
+	 */
+	String stats() {
+		long scanned = scannedGroups.sum();
+		return String.format(Locale.ROOT, "scanned %d of %d row groups", scanned, scanned + skippedGroups.sum());
+	}
+
+	private List<ColumnarSnapshot.Row> scan(final ColumnarSnapshot.RowGroup group) throws IOException {
+		List<ColumnarSnapshot.Row> rows = new ArrayList<>();
+		if (group.maxTimestamp < fromTimestamp || group.minTimestamp > toTimestamp
+				|| (boundingBox != null && (group.maxLatitude < boundingBox[0] || group.minLatitude > boundingBox[2]
+						|| group.maxLongitude < boundingBox[1] || group.minLongitude > boundingBox[3]))) {
+			skippedGroups.increment();
+			return rows;
+		}
+		scannedGroups.increment();
+
+		boolean[] match = new boolean[group.rows];
+		long[] timestamps = snapshot.readLongs(group, ColumnarSnapshot.Column.TIMESTAMP);
+		for (int i = 0; i < group.rows; i++) {
+			match[i] = timestamps[i] >= fromTimestamp && timestamps[i] <= toTimestamp;
+		}
+		String[] owners = snapshot.readStrings(group, ColumnarSnapshot.Column.OWNER);
+		if (owner != null) {
+			for (int i = 0; i < group.rows; i++) {
+				match[i] &= owner.equals(owners[i]);
+			}
+		}
+		double[] latitudes = snapshot.readDoubles(group, ColumnarSnapshot.Column.LATITUDE);
+		double[] longitudes = snapshot.readDoubles(group, ColumnarSnapshot.Column.LONGITUDE);
+		if (boundingBox != null) {
+			for (int i = 0; i < group.rows; i++) {
+				// NaN positions compare false and drop out
+				match[i] &= latitudes[i] >= boundingBox[0] && latitudes[i] <= boundingBox[2]
+						&& longitudes[i] >= boundingBox[1] && longitudes[i] <= boundingBox[3];
+			}
+		}
+
+		String[] qrs = null;
+		for (int i = 0; i < group.rows; i++) {
+			if (match[i]) {
+				if (qrs == null) {
+					qrs = snapshot.readStrings(group, ColumnarSnapshot.Column.QR);
+				}
+				rows.add(new ColumnarSnapshot.Row(qrs[i], owners[i], null, null, latitudes[i], longitudes[i],
+						timestamps[i], 0));
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Prints the rows as CSV, at most {@code limit} of them.
+	 */
+	static void print(final List<ColumnarSnapshot.Row> rows, final int limit, final PrintStream out) {
+		out.println("qr,owner,latitude,longitude,timestamp");
+		for (int i = 0; i < Math.min(limit, rows.size()); i++) {
+			ColumnarSnapshot.Row row = rows.get(i);
+			out.printf(Locale.ROOT, "%s,%s,%.6f,%.6f,%d%n", row.qr, row.owner, row.latitude, row.longitude,
+					row.timestamp);
+		}
+		if (rows.size() > limit) {
+			out.printf("... %d more%n", rows.size() - limit);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hyperledger.fabric.client.Contract;
+import org.hyperledger.fabric.client.Status;
+import org.hyperledger.fabric.client.SubmittedTransaction;
+
+/**
+ * Pipelined transaction submission: many transactions are endorsed and waiting for their commit at the same time.
+ * <p>
+ * {@link Contract#submitTransaction} blocks for the whole endorse, order and commit round trip, so a single caller
+ * gets one transaction per block time at best. Here every submission is endorsed, handed to the orderer with
+ * {@code submitAsync} and awaited on a worker thread, and the caller gets a future right away. At most
+ * {@code window} transactions are in flight; {@link #submit} blocks while the window is full, which is the
+ * backpressure that keeps a fast producer from queueing unbounded work.
+ */
+final class SubmissionEngine implements AutoCloseable {
+
+	private final Contract contract;
+	private final Semaphore window;
+	private final int windowSize;
+	private final ExecutorService workers;
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	SubmissionEngine(final Contract contract, final int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("Window size must be at least 1");
+		}
+		this.contract = contract;
+		this.windowSize = windowSize;
+		this.window = new Semaphore(windowSize);
+		AtomicInteger threads = new AtomicInteger();
+		// the gateway calls block, so each transaction in flight holds a worker until its commit status arrives
+		this.workers = Executors.newFixedThreadPool(windowSize, runnable -> {
+			Thread thread = new Thread(runnable, "submit-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Submits a transaction, waiting first for a free slot in the window.
+	 *
+	 * @return the result of the transaction once it committed successfully; completes exceptionally with the
+	 * gateway exception if endorsement, submission or the commit status call failed, or with a
+	 * {@link CommitFailedException} if the transaction was committed as invalid
+	 */
+	CompletableFuture<byte[]> submit(final String name, final String... args) throws InterruptedException {
+		window.acquire();
+		long start = System.nanoTime();
+		CompletableFuture<byte[]> result = new CompletableFuture<>();
+		try {
+			workers.execute(() -> {
+				try {
+					SubmittedTransaction submitted = contract.newProposal(name)
+							.addArguments(args)
+							.build()
+							.endorse()
+							.submitAsync();
+					Status status = submitted.getStatus();
+					if (!status.isSuccessful()) {
+						throw new CommitFailedException(name, status);
+					}
+					result.complete(submitted.getResult());
+				} catch (Exception e) {
+					result.completeExceptionally(e);
+				} finally {
+					latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+					window.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			window.release();
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * @return transactions submitted and not yet completed
+	 */
+	int getInFlight() {
+		return windowSize - window.availablePermits();
+	}
+
+	int getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * @return submit-to-completion latency of all finished transactions, successful or not
+	 */
+	LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Waits for the transactions in flight, then stops the workers.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		window.acquire(windowSize);
+		try {
+			workers.shutdown();
+			workers.awaitTermination(1, TimeUnit.MINUTES);
+		} finally {
+			window.release(windowSize);
+		}
+	}
+}
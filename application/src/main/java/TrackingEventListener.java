@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.hyperledger.fabric.client.ChaincodeEvent;
+import org.hyperledger.fabric.client.CloseableIterator;
+import org.hyperledger.fabric.client.Network;
+
+/**
+ * Keeps a {@link TrackingView} up to date from the chaincode events of a network.
+ * <p>
+ * The event stream starts from the view's checkpoint, or from the genesis block for an empty view, and the view is
+ * saved to the snapshot file every few seconds and on close. After a restart the view is loaded from the snapshot
+ * and only the events after it are replayed. A broken stream is reopened from the checkpoint.
+ * <p>
+ * Change listeners are told the qr of every plant changed by a committed transaction, once the view reflects it.
+ */
+final class TrackingEventListener implements AutoCloseable {
+
+	private static final long SNAPSHOT_INTERVAL_MILLIS = 5_000;
+	private static final long RECONNECT_DELAY_MILLIS = 1_000;
+
+	private final Network network;
+	private final String chaincodeName;
+	private final TrackingView view;
+	private final Path snapshotFile;
+	private final Thread thread;
+	private volatile boolean started;
+	private volatile boolean closed;
+	private volatile CloseableIterator<ChaincodeEvent> events;
+	private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+
+	TrackingEventListener(final Network network, final String chaincodeName, final Path snapshotFile)
+			throws IOException {
+		this.network = network;
+		this.chaincodeName = chaincodeName;
+		this.snapshotFile = snapshotFile;
+		this.view = TrackingView.load(snapshotFile);
+		this.thread = new Thread(this::listen, "tracking-events");
+		this.thread.setDaemon(true);
+	}
+
+	TrackingEventListener start() {
+		started = true;
+		thread.start();
+		return this;
+	}
+
+	TrackingEventListener onChange(final Consumer<String> listener) {
+		changeListeners.add(listener);
+		return this;
+	}
+
+	TrackingView getView() {
+		return view;
+	}
+
+	private void listen() {
+		long lastSave = System.nanoTime();
+		while (!closed) {
+			try {
+				events = network.newChaincodeEventsRequest(chaincodeName)
+						.startBlock(0)
+						.checkpoint(view.getCheckpoint())
+						.build()
+						.getEvents();
+				while (events.hasNext()) {
+					for (String qr : view.apply(events.next())) {
+						for (Consumer<String> listener : changeListeners) {
+							listener.accept(qr);
+						}
+					}
+					if (System.nanoTime() - lastSave > TimeUnit.MILLISECONDS.toNanos(SNAPSHOT_INTERVAL_MILLIS)) {
+						view.save(snapshotFile);
+						lastSave = System.nanoTime();
+					}
+				}
+			} catch (Exception e) {
+				if (closed) {
+					return;
+				}
+				System.err.println("Chaincode event stream failed, reconnecting: " + e.getMessage());
+				try {
+					view.save(snapshotFile);
+					Thread.sleep(RECONNECT_DELAY_MILLIS);
+				} catch (IOException saveFailure) {
+					System.err.println("Failed to save the tracking view: " + saveFailure.getMessage());
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+			} finally {
+				if (events != null) {
+					events.close();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException, InterruptedException {
+		closed = true;
+		if (!started) {
+			return;
+		}
+		CloseableIterator<ChaincodeEvent> current = events;
+		if (current != null) {
+			current.close();
+		}
+		thread.interrupt();
+		thread.join(TimeUnit.SECONDS.toMillis(5));
+		view.save(snapshotFile);
+	}
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hyperledger.fabric.client.ChaincodeEvent;
+import org.hyperledger.fabric.client.Checkpoint;
+import org.hyperledger.fabric.client.InMemoryCheckpointer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Local materialized view of the current tracking state, maintained from the {@value #TRACKING_EVENT} chaincode
+ * events.
+ * <p>
+ * Lookups are a map read. The view and the checkpoint of the last applied event change together under the
+ * view's lock, so a snapshot written by {@link #save} always resumes exactly after the events it contains.
+ */
+final class TrackingView {
+
+	static final String TRACKING_EVENT = "BasilTracking";
+
+	private static final Gson GSON = new Gson();
+
+	private final ConcurrentMap<String, Plant> plants = new ConcurrentHashMap<>();
+	private final InMemoryCheckpointer checkpointer = new InMemoryCheckpointer();
+
+	/**
+	 * Current state of a tracked plant, as of block {@code blockNumber}.
+	 */
+	static final class Plant {
+
+		final String qr;
+		final String owner;
+		final String basilLeg;
+		final String gpsPosition;
+		final long timestamp;
+		final long blockNumber;
+
+		Plant(final String qr, final String owner, final String basilLeg, final String gpsPosition,
+				final long timestamp, final long blockNumber) {
+			this.qr = qr;
+			this.owner = owner;
+			this.basilLeg = basilLeg;
+			this.gpsPosition = gpsPosition;
+			this.timestamp = timestamp;
+			this.blockNumber = blockNumber;
+		}
+
+		String toJson() {
+			return GSON.toJson(this);
+		}
+	}
+
+	/**
+	 * @return the plant, or null if it is not tracked or the view has not seen it
+	 */
+	Plant get(final String qr) {
+		return plants.get(qr);
+	}
+
+	int size() {
+		return plants.size();
+	}
+
+	/**
+	 * @return the position after the last applied event, to resume the event stream from
+	 */
+	Checkpoint getCheckpoint() {
+		return checkpointer;
+	}
+
+	/**
+	 * Applies a {@value #TRACKING_EVENT} event; other events only move the checkpoint.
+	 *
+	 * @return the qr codes of the plants the event changed
+	 */
+	synchronized List<String> apply(final ChaincodeEvent event) throws IOException {
+		List<String> changed = new ArrayList<>();
+		if (TRACKING_EVENT.equals(event.getEventName())) {
+			JsonElement changes = JsonParser.parseString(new String(event.getPayload(), StandardCharsets.UTF_8));
+			for (JsonElement element : changes.getAsJsonArray()) {
+				changed.add(apply(element.getAsJsonObject(), event.getBlockNumber()));
+			}
+		}
+		checkpointer.checkpointChaincodeEvent(event);
+		return changed;
+	}
+
+	private String apply(final JsonObject change, final long blockNumber) {
+		String op = string(change, "op");
+		String qr = string(change, "qr");
+		Plant current = plants.get(qr);
+		switch (op) {
+			case "CREATE":
+			case "UPDATE":
+				plants.put(qr, new Plant(qr, string(change, "owner"), string(change, "basilLeg"),
+						string(change, "gpsPosition"), change.get("timestamp").getAsLong(), blockNumber));
+				break;
+			case "TRANSFER":
+				plants.put(qr, new Plant(qr, string(change, "owner"), string(change, "basilLeg"),
+						current == null ? null : current.gpsPosition, current == null ? 0 : current.timestamp,
+						blockNumber));
+				break;
+			case "STOP":
+				plants.remove(qr);
+				break;
+			default:
+				// changes of a newer chaincode version
+				break;
+		}
+		return qr;
+	}
+
+	/**
+	 * Writes the view and its checkpoint to the file, replacing it atomically.
+	 */
+	synchronized void save(final Path file) throws IOException {
+		Snapshot snapshot = new Snapshot();
+		OptionalLong blockNumber = checkpointer.getBlockNumber();
+		snapshot.blockNumber = blockNumber.isPresent() ? blockNumber.getAsLong() : null;
+		snapshot.transactionId = checkpointer.getTransactionId().orElse(null);
+		snapshot.plants = new ArrayList<>(plants.values());
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			GSON.toJson(snapshot, writer);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the view saved in the file, or an empty view if there is none
+	 */
+	static TrackingView load(final Path file) throws IOException {
+		TrackingView view = new TrackingView();
+		if (!Files.exists(file)) {
+			return view;
+		}
+		Snapshot snapshot;
+		try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			snapshot = GSON.fromJson(reader, Snapshot.class);
+		}
+		if (snapshot == null || snapshot.blockNumber == null) {
+			return view;
+		}
+		if (snapshot.plants != null) {
+			for (Plant plant : snapshot.plants) {
+				view.plants.put(plant.qr, plant);
+			}
+		}
+		if (snapshot.transactionId != null) {
+			view.checkpointer.checkpointTransaction(snapshot.blockNumber, snapshot.transactionId);
+		} else {
+			// checkpointBlock() records the block after the given one
+			view.checkpointer.checkpointBlock(snapshot.blockNumber - 1);
+		}
+		return view;
+	}
+
+	private static String string(final JsonObject object, final String name) {
+		JsonElement value = object.get(name);
+		return value == null || value.isJsonNull() ? null : value.getAsString();
+	}
+
+	private static final class Snapshot {
+		Long blockNumber;
+		String transactionId;
+		List<Plant> plants;
+	}
+}
@@ -0,0 +1,68 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class HistoryRendererTest {
+
+	private static final int ENTRIES = 100_000;
+
+	@Test
+	public void rendersLargeHistoryAsNdjson() throws IOException {
+		StringWriter out = new StringWriter();
+		HistoryRenderer renderer = new HistoryRenderer(out, true);
+
+		assertEquals("", renderer.render(HistoryRenderer.synthetic(ENTRIES)));
+		renderer.finish();
+
+		assertEquals(ENTRIES, renderer.getEntries());
+		int lines = 0;
+		try (BufferedReader reader = new BufferedReader(new StringReader(out.toString()))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				JsonObject entry = JsonParser.parseString(line).getAsJsonObject();
+				assertEquals("SYN-000001", entry.get("qr").getAsString());
+				assertEquals(lines % 2 == 0 ? "ORG1MSP" : "ORG2MSP", entry.get("owner").getAsString());
+				lines++;
+			}
+		}
+		assertEquals(ENTRIES, lines);
+	}
+
+	@Test
+	public void rendersLargeHistoryAsOneArray() throws IOException {
+		StringWriter out = new StringWriter();
+		HistoryRenderer renderer = new HistoryRenderer(out, false);
+
+		renderer.render(HistoryRenderer.synthetic(ENTRIES));
+		renderer.finish();
+
+		assertEquals(ENTRIES, renderer.getEntries());
+		JsonArray entries = JsonParser.parseString(out.toString()).getAsJsonArray();
+		assertEquals(ENTRIES, entries.size());
+		assertTrue(entries.get(ENTRIES - 1).getAsJsonObject().has("basilLeg"));
+	}
+
+	@Test
+	public void returnsTheBookmarkOfAPage() throws IOException {
+		StringWriter out = new StringWriter();
+		HistoryRenderer renderer = new HistoryRenderer(out, true);
+
+		String bookmark = renderer.render(("{\"records\":[{\"txId\":\"a\"},{\"txId\":\"b\"}],"
+				+ "\"fetchedRecordsCount\":2,\"bookmark\":\"b\"}").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+		renderer.finish();
+
+		assertEquals("b", bookmark);
+		assertEquals(2, renderer.getEntries());
+		assertEquals("{\"txId\":\"a\"}\n{\"txId\":\"b\"}\n", out.toString());
+	}
+}
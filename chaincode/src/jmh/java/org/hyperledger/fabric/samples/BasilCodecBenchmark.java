@@ -0,0 +1,101 @@
+package org.hyperledger.fabric.samples;
+
+import com.owlike.genson.Genson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode cost of the legacy Genson JSON records against the {@link BasilCodec} binary records.
+ * <p>
+ * The JSON variants include the UTF-8 conversion that {@code putStringState}/{@code getStringState} add on top of
+ * Genson. The stored bytes per key of both formats are printed when the benchmark is set up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasilCodecBenchmark {
+
+    private final Genson genson = new Genson();
+
+    private Basil basil;
+    private BasilLeg basilLeg;
+    private byte[] basilJson;
+    private byte[] basilBinary;
+    private byte[] basilLegJson;
+    private byte[] basilLegBinary;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        InMemoryLedger ledger = new InMemoryLedger();
+        InMemoryChaincodeStub stub = ledger.newStub(FakeIdentity.ORG1_MSP, "CreateTracking");
+        String qr = BasilContractBenchmark.qr(4242);
+        String legKey = stub.createCompositeKey(BasilContract.BASIL_LEG_TYPE, qr,
+                String.format("%019d", stub.getTxTimestamp().getEpochSecond()), stub.getTxId()).toString();
+
+        basilLeg = new BasilLeg(legKey, stub.getTxTimestamp().getEpochSecond(), BasilContractBenchmark.gps(4242), qr);
+        basil = new Basil(qr, BasilContractBenchmark.EXTRA_INFO, FakeIdentity.ORG1_MSP, legKey);
+
+        basilJson = genson.serialize(basil).getBytes(StandardCharsets.UTF_8);
+        basilBinary = BasilCodec.encode(basil);
+        basilLegJson = genson.serialize(basilLeg).getBytes(StandardCharsets.UTF_8);
+        basilLegBinary = BasilCodec.encode(basilLeg);
+
+        System.out.printf("%nStored bytes per key: Basil json=%d binary=%d, BasilLeg json=%d binary=%d%n",
+                basilJson.length, basilBinary.length, basilLegJson.length, basilLegBinary.length);
+    }
+
+    @Benchmark
+    public byte[] basilEncodeJson() {
+        return genson.serialize(basil).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] basilEncodeBinary() {
+        return BasilCodec.encode(basil);
+    }
+
+    @Benchmark
+    public Basil basilDecodeJson() {
+        return genson.deserialize(new String(basilJson, StandardCharsets.UTF_8), Basil.class);
+    }
+
+    @Benchmark
+    public Basil basilDecodeBinary() {
+        return BasilCodec.decodeBasil(basilBinary);
+    }
+
+    @Benchmark
+    public byte[] basilLegEncodeJson() {
+        return genson.serialize(basilLeg).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] basilLegEncodeBinary() {
+        return BasilCodec.encode(basilLeg);
+    }
+
+    @Benchmark
+    public BasilLeg basilLegDecodeJson() {
+        return genson.deserialize(new String(basilLegJson, StandardCharsets.UTF_8), BasilLeg.class);
+    }
+
+    @Benchmark
+    public BasilLeg basilLegDecodeBinary() {
+        return BasilCodec.decodeBasilLeg(basilLegBinary);
+    }
+}
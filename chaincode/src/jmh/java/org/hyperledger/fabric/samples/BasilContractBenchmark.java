@@ -0,0 +1,234 @@
+package org.hyperledger.fabric.samples;
+
+import org.hyperledger.fabric.shim.ChaincodeException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Per-transaction cost of {@link BasilContract} against an {@link InMemoryLedger}, i.e. chaincode time only:
+ * serialization, state access and identity parsing, without gossip, ordering or the peer gRPC stream.
+ * <p>
+ * The ledger is preloaded with {@code plants} tracked plants; a hot set of {@value #HOT_PLANTS} of them carries
+ * {@code historyDepth} position updates so that {@code GetHistory} and {@code GetLegsInRange} walk a realistic route.
+ * <pre>
+ * ./gradlew jmh -PjmhArgs='BasilContractBenchmark -p plants=10000'
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BasilContractBenchmark {
+
+    static final int HOT_PLANTS = 1024;
+
+    static final int BATCH_SIZE = 100;
+
+    static final String EXTRA_INFO = "{\"variety\":\"Genovese DOP\",\"greenhouse\":\"Albenga-3\",\"batch\":\"2024-W07\"}";
+
+    @Param({"10000", "100000", "1000000"})
+    public int plants;
+
+    @Param({"10"})
+    public int historyDepth;
+
+    private final BasilContract contract = new BasilContract();
+    private final SplittableRandom random = new SplittableRandom(42);
+    private InMemoryLedger ledger;
+    private long created;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        ledger = new InMemoryLedger();
+        for (int i = 0; i < plants; i++) {
+            String qr = qr(i);
+            String gps = gps(i);
+            invoke(FakeIdentity.ORG1_MSP, "CreateTracking",
+                    ctx -> contract.CreateTracking(ctx, qr, EXTRA_INFO, gps));
+        }
+        for (int depth = 1; depth < historyDepth; depth++) {
+            for (int i = 0; i < Math.min(HOT_PLANTS, plants); i++) {
+                String qr = qr(i);
+                String gps = gps(i + depth);
+                invoke(FakeIdentity.ORG1_MSP, "UpdateTracking", Arrays.asList(qr, gps),
+                        ctx -> contract.UpdateTracking(ctx, qr, gps));
+            }
+        }
+        created = plants;
+        ledger.resetCounters();
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        long txs = Math.max(1, ledger.getCountedTxs());
+        System.out.printf("%nShim calls per transaction: reads=%.2f writes=%.2f, bytes read=%d written=%d%n",
+                (double) ledger.getStateReads() / txs, (double) ledger.getStateWrites() / txs,
+                ledger.getBytesRead() / txs, ledger.getBytesWritten() / txs);
+    }
+
+    @Benchmark
+    public String createTracking() {
+        String qr = qr(created);
+        String gps = gps(created++);
+        return invoke(FakeIdentity.ORG1_MSP, "CreateTracking",
+                ctx -> contract.CreateTracking(ctx, qr, EXTRA_INFO, gps));
+    }
+
+    /**
+     * {@value #BATCH_SIZE} plants per transaction; divide by the batch size to compare with {@link #createTracking}.
+     */
+    @Benchmark
+    public String createTrackingBatch() {
+        StringBuilder plantsJson = new StringBuilder("[");
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            long index = created++;
+            plantsJson.append(i == 0 ? "" : ",")
+                    .append("{\"qr\":\"").append(qr(index))
+                    .append("\",\"extraInfo\":").append(JSONObject.quote(EXTRA_INFO))
+                    .append(",\"gpsPosition\":\"").append(gps(index)).append("\"}");
+        }
+        String batch = plantsJson.append(']').toString();
+        return invoke(FakeIdentity.ORG1_MSP, "CreateTrackingBatch",
+                ctx -> contract.CreateTrackingBatch(ctx, batch));
+    }
+
+    @Benchmark
+    public String updateTracking() {
+        String qr = randomPlant();
+        String gps = gps(random.nextInt(1_000_000));
+        return invoke(FakeIdentity.ORG1_MSP, "UpdateTracking", Arrays.asList(qr, gps),
+                ctx -> contract.UpdateTracking(ctx, qr, gps));
+    }
+
+    /**
+     * An update by an organization that does not own the plant, rejected before the transaction body runs.
+     */
+    @Benchmark
+    public String updateTrackingNotOwner() {
+        String qr = randomPlant();
+        String gps = gps(random.nextInt(1_000_000));
+        try {
+            return invoke(FakeIdentity.ORG2_MSP, "UpdateTracking", Arrays.asList(qr, gps),
+                    ctx -> contract.UpdateTracking(ctx, qr, gps));
+        } catch (ChaincodeException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Benchmark
+    public String updatePosition() {
+        String qr = randomPlant();
+        String gps = gps(random.nextInt(1_000_000));
+        return invoke(FakeIdentity.ORG1_MSP, "UpdatePosition", Arrays.asList(qr, gps),
+                ctx -> contract.UpdatePosition(ctx, qr, gps));
+    }
+
+    @Benchmark
+    public String transferTracking() {
+        String qr = randomPlant();
+        return invoke(FakeIdentity.ORG1_MSP, "TransferTracking", Arrays.asList(qr, FakeIdentity.ORG1_MSP),
+                ctx -> contract.TransferTracking(ctx, qr, FakeIdentity.ORG1_MSP));
+    }
+
+    @Benchmark
+    public String getActualTracking() {
+        String qr = randomPlant();
+        return invoke(FakeIdentity.ORG1_MSP, "GetActualTracking",
+                ctx -> contract.GetActualTracking(ctx, qr));
+    }
+
+    /**
+     * Baseline for {@link #getActualTracking}: the former response, both records decoded into a map and rendered with
+     * {@code Map.toString()}. Compare allocations with {@code -prof gc}.
+     */
+    @Benchmark
+    public String getActualTrackingDecoded() {
+        String qr = randomPlant();
+        return invoke(FakeIdentity.ORG1_MSP, "GetActualTracking", ctx -> {
+            Basil basil = ctx.getBasil(qr);
+            Map<String, Object> response = new HashMap<>();
+            response.put("Basil", basil);
+            response.put("BasilLeg", ctx.getBasilLeg(basil.getBasilLeg()));
+            return response.toString();
+        });
+    }
+
+    @Benchmark
+    public String getHistory() {
+        String qr = qr(random.nextInt(Math.min(HOT_PLANTS, plants)));
+        return invoke(FakeIdentity.ORG2_MSP, "GetHistory",
+                ctx -> contract.GetHistory(ctx, qr));
+    }
+
+    @Benchmark
+    public String getHistoryPage() {
+        String qr = qr(random.nextInt(Math.min(HOT_PLANTS, plants)));
+        return invoke(FakeIdentity.ORG2_MSP, "GetHistoryPage",
+                ctx -> contract.GetHistoryPage(ctx, qr, 100, "", 0, 0));
+    }
+
+    @Benchmark
+    public String getLegsInRange() {
+        String qr = qr(random.nextInt(Math.min(HOT_PLANTS, plants)));
+        return invoke(FakeIdentity.ORG2_MSP, "GetLegsInRange",
+                ctx -> contract.GetLegsInRange(ctx, qr, 0, Long.MAX_VALUE, 100, ""));
+    }
+
+    @Benchmark
+    public String getBasilsByOwner() {
+        return invoke(FakeIdentity.ORG2_MSP, "GetBasilsByOwner",
+                ctx -> contract.GetBasilsByOwner(ctx, FakeIdentity.ORG1_MSP, 100, ""));
+    }
+
+    @Benchmark
+    public String getBasilsInBoundingBox() {
+        return invoke(FakeIdentity.ORG2_MSP, "GetBasilsInBoundingBox",
+                ctx -> contract.GetBasilsInBoundingBox(ctx, 44.40, 8.40, 44.45, 8.45, 100, ""));
+    }
+
+    private <T> T invoke(final String mspId, final String function, final Function<BasilContext, T> body) {
+        return ledger.invoke(contract, mspId, function, ctx -> body.apply((BasilContext) ctx));
+    }
+
+    private <T> T invoke(final String mspId, final String function, final List<String> parameters,
+                         final Function<BasilContext, T> body) {
+        return ledger.invoke(contract, mspId, function, parameters, ctx -> body.apply((BasilContext) ctx));
+    }
+
+    private String randomPlant() {
+        return qr(random.nextInt(plants));
+    }
+
+    static String qr(final long index) {
+        return String.format("QR-%010d", index);
+    }
+
+    static String gps(final long seed) {
+        double lat = 44.0 + (seed % 1000) / 1000.0;
+        double lon = 8.0 + (seed % 997) / 997.0;
+        return String.format(Locale.ROOT, "%.6f,%.6f", lat, lon);
+    }
+}
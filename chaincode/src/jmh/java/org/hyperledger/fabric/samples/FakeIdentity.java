@@ -0,0 +1,48 @@
+package org.hyperledger.fabric.samples;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.msp.SerializedIdentity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serialized creator identities for the in-memory stub.
+ * <p>
+ * {@code ClientIdentity} parses the creator exactly as it does on a peer, so the benchmarks pay the real
+ * certificate parsing cost; only the MSP id differs between organizations.
+ */
+public final class FakeIdentity {
+
+    public static final String ORG1_MSP = "Org1MSP";
+    public static final String ORG2_MSP = "Org2MSP";
+
+    private static final String CERTIFICATE = "-----BEGIN CERTIFICATE-----\n"
+            + "MIIB0jCCAXegAwIBAgIUaqikXQffDHVA3k2j1FZA1D0aI7IwCgYIKoZIzj0EAwIw\n"
+            + "PTELMAkGA1UEBhMCSVQxDTALBgNVBAoMBE9yZzExHzAdBgNVBAMMFlVzZXIxQG9y\n"
+            + "ZzEuZXhhbXBsZS5jb20wIBcNMjYxMDE3MjE0MDA5WhgPMjEyNjA5MjMyMTQwMDla\n"
+            + "MD0xCzAJBgNVBAYTAklUMQ0wCwYDVQQKDARPcmcxMR8wHQYDVQQDDBZVc2VyMUBv\n"
+            + "cmcxLmV4YW1wbGUuY29tMFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAE8tl/+sB+\n"
+            + "gEKGW76+YuLldAaJWHkOY/Rg4n9i2C9FAxyCqSCp/Ji4++gT/A92OZQALGntBtsg\n"
+            + "dY0WWUwHmh3qj6NTMFEwHQYDVR0OBBYEFND/PWALonOgCP7ocRWGwLg5N45DMB8G\n"
+            + "A1UdIwQYMBaAFND/PWALonOgCP7ocRWGwLg5N45DMA8GA1UdEwEB/wQFMAMBAf8w\n"
+            + "CgYIKoZIzj0EAwIDSQAwRgIhAKy6s2ysjrkVsLzlJrVdU9PJgQSU3UUELOppdMKi\n"
+            + "L8i+AiEA9qG2NSApTLM8U18hzj2xJ9rNBZ6mPRUsALoOhkM2sKE=\n"
+            + "-----END CERTIFICATE-----\n";
+
+    private static final Map<String, byte[]> CREATORS = new ConcurrentHashMap<>();
+
+    private FakeIdentity() {
+    }
+
+    /**
+     * Returns the serialized {@code SerializedIdentity} a peer would hand to the chaincode for this MSP.
+     */
+    public static byte[] creator(final String mspId) {
+        return CREATORS.computeIfAbsent(mspId, id -> SerializedIdentity.newBuilder()
+                .setMspid(id)
+                .setIdBytes(ByteString.copyFromUtf8(CERTIFICATE))
+                .build()
+                .toByteArray());
+    }
+}
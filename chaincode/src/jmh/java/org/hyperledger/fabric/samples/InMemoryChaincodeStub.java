@@ -0,0 +1,389 @@
+package org.hyperledger.fabric.samples;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.ChaincodeEvent;
+import org.hyperledger.fabric.protos.peer.QueryResponseMetadata;
+import org.hyperledger.fabric.protos.peer.SignedProposal;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ChaincodeStub} backed by an {@link InMemoryLedger} instead of the peer gRPC stream.
+ * <p>
+ * Reads see committed state only, writes go to a per-transaction write set, and range and composite key
+ * queries follow the LevelDB semantics of the peer (ordered keys, key bookmarks). Rich queries and private
+ * data are not supported.
+ */
+public final class InMemoryChaincodeStub implements ChaincodeStub {
+
+    private static final String MAX_UNICODE_RUNE = "\uDBFF\uDFFF";
+    private static final String UNSPECIFIED_START_KEY = "\u0001";
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InMemoryLedger ledger;
+    private final String txId;
+    private final Instant txTimestamp;
+    private final byte[] creator;
+    private final String mspId;
+    private final String function;
+    private final List<String> parameters;
+    private final Map<String, byte[]> writeSet = new LinkedHashMap<>();
+    private ChaincodeEvent event;
+
+    InMemoryChaincodeStub(final InMemoryLedger ledger, final String txId, final Instant txTimestamp,
+                          final byte[] creator, final String mspId, final String function,
+                          final List<String> parameters) {
+        this.ledger = ledger;
+        this.txId = txId;
+        this.txTimestamp = txTimestamp;
+        this.creator = creator;
+        this.mspId = mspId;
+        this.function = function;
+        this.parameters = parameters;
+    }
+
+    Map<String, byte[]> getWriteSet() {
+        return writeSet;
+    }
+
+    @Override
+    public List<byte[]> getArgs() {
+        List<byte[]> args = new ArrayList<>(parameters.size() + 1);
+        for (String arg : getStringArgs()) {
+            args.add(arg.getBytes(StandardCharsets.UTF_8));
+        }
+        return args;
+    }
+
+    @Override
+    public List<String> getStringArgs() {
+        List<String> args = new ArrayList<>(parameters.size() + 1);
+        args.add(function);
+        args.addAll(parameters);
+        return args;
+    }
+
+    @Override
+    public String getFunction() {
+        return function;
+    }
+
+    @Override
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String getTxId() {
+        return txId;
+    }
+
+    @Override
+    public String getChannelId() {
+        return InMemoryLedger.CHANNEL_ID;
+    }
+
+    @Override
+    public Chaincode.Response invokeChaincode(final String chaincodeName, final List<byte[]> args,
+                                              final String channel) {
+        throw new UnsupportedOperationException("invokeChaincode");
+    }
+
+    @Override
+    public byte[] getState(final String key) {
+        // the peer answers a missing key with an empty value, never with null
+        byte[] value = ledger.read(key);
+        return value == null ? EMPTY : value;
+    }
+
+    @Override
+    public byte[] getStateValidationParameter(final String key) {
+        return null;
+    }
+
+    @Override
+    public void putState(final String key, final byte[] value) {
+        if (value == null || value.length == 0) {
+            throw new IllegalArgumentException("value must not be empty, use delState to remove " + key);
+        }
+        ledger.countWrite(value);
+        writeSet.put(key, value);
+    }
+
+    @Override
+    public void setStateValidationParameter(final String key, final byte[] value) {
+        throw new UnsupportedOperationException("setStateValidationParameter");
+    }
+
+    @Override
+    public void delState(final String key) {
+        ledger.countWrite(null);
+        writeSet.put(key, null);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByRange(final String startKey, final String endKey) {
+        CompositeKey.validateSimpleKeys(startKey, endKey);
+        String start = startKey == null || startKey.isEmpty() ? UNSPECIFIED_START_KEY : startKey;
+        return new ResultsIterator<>(entries(ledger.range(start, endKey == null ? "" : endKey), Integer.MAX_VALUE),
+                "");
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByRangeWithPagination(final String startKey,
+            final String endKey, final int pageSize, final String bookmark) {
+        CompositeKey.validateSimpleKeys(startKey, endKey);
+        String start = startKey == null || startKey.isEmpty() ? UNSPECIFIED_START_KEY : startKey;
+        return page(start, endKey == null ? "" : endKey, pageSize, bookmark);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String compositeKey) {
+        return getStateByPartialCompositeKey(CompositeKey.parseCompositeKey(compositeKey));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final String objectType,
+                                                                       final String... attributes) {
+        return getStateByPartialCompositeKey(new CompositeKey(objectType, attributes));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final CompositeKey compositeKey) {
+        String prefix = compositeKey.toString();
+        return new ResultsIterator<>(entries(ledger.range(prefix, prefix + MAX_UNICODE_RUNE), Integer.MAX_VALUE),
+                "");
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByPartialCompositeKeyWithPagination(
+            final CompositeKey compositeKey, final int pageSize, final String bookmark) {
+        String prefix = compositeKey.toString();
+        return page(prefix, prefix + MAX_UNICODE_RUNE, pageSize, bookmark);
+    }
+
+    @Override
+    public CompositeKey createCompositeKey(final String objectType, final String... attributes) {
+        return new CompositeKey(objectType, attributes);
+    }
+
+    @Override
+    public CompositeKey splitCompositeKey(final String compositeKey) {
+        return CompositeKey.parseCompositeKey(compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getQueryResult(final String query) {
+        throw new UnsupportedOperationException("Rich queries are not supported by the in-memory ledger");
+    }
+
+    @Override
+    public QueryResultsIteratorWithMetadata<KeyValue> getQueryResultWithPagination(final String query,
+            final int pageSize, final String bookmark) {
+        throw new UnsupportedOperationException("Rich queries are not supported by the in-memory ledger");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyModification> getHistoryForKey(final String key) {
+        return new ResultsIterator<>(ledger.history(key), "");
+    }
+
+    @Override
+    public byte[] getPrivateData(final String collection, final String key) {
+        throw new UnsupportedOperationException("getPrivateData");
+    }
+
+    @Override
+    public byte[] getPrivateDataHash(final String collection, final String key) {
+        throw new UnsupportedOperationException("getPrivateDataHash");
+    }
+
+    @Override
+    public byte[] getPrivateDataValidationParameter(final String collection, final String key) {
+        throw new UnsupportedOperationException("getPrivateDataValidationParameter");
+    }
+
+    @Override
+    public void putPrivateData(final String collection, final String key, final byte[] value) {
+        throw new UnsupportedOperationException("putPrivateData");
+    }
+
+    @Override
+    public void setPrivateDataValidationParameter(final String collection, final String key, final byte[] value) {
+        throw new UnsupportedOperationException("setPrivateDataValidationParameter");
+    }
+
+    @Override
+    public void delPrivateData(final String collection, final String key) {
+        throw new UnsupportedOperationException("delPrivateData");
+    }
+
+    @Override
+    public void purgePrivateData(final String collection, final String key) {
+        throw new UnsupportedOperationException("purgePrivateData");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByRange(final String collection, final String startKey,
+                                                              final String endKey) {
+        throw new UnsupportedOperationException("getPrivateDataByRange");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection,
+                                                                            final String compositeKey) {
+        throw new UnsupportedOperationException("getPrivateDataByPartialCompositeKey");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection,
+                                                                            final CompositeKey compositeKey) {
+        throw new UnsupportedOperationException("getPrivateDataByPartialCompositeKey");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(final String collection,
+            final String objectType, final String... attributes) {
+        throw new UnsupportedOperationException("getPrivateDataByPartialCompositeKey");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataQueryResult(final String collection, final String query) {
+        throw new UnsupportedOperationException("getPrivateDataQueryResult");
+    }
+
+    @Override
+    public void setEvent(final String name, final byte[] payload) {
+        event = ChaincodeEvent.newBuilder()
+                .setEventName(name)
+                .setPayload(ByteString.copyFrom(payload))
+                .setTxId(txId)
+                .build();
+    }
+
+    @Override
+    public ChaincodeEvent getEvent() {
+        return event;
+    }
+
+    @Override
+    public SignedProposal getSignedProposal() {
+        return SignedProposal.getDefaultInstance();
+    }
+
+    @Override
+    public Instant getTxTimestamp() {
+        return txTimestamp;
+    }
+
+    @Override
+    public byte[] getCreator() {
+        return creator;
+    }
+
+    @Override
+    public Map<String, byte[]> getTransient() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public byte[] getBinding() {
+        return new byte[0];
+    }
+
+    @Override
+    public String getMspId() {
+        return mspId;
+    }
+
+    private ResultsIterator<KeyValue> page(final String startKey, final String endKey, final int pageSize,
+                                           final String bookmark) {
+        String start = bookmark == null || bookmark.isEmpty() ? startKey : bookmark;
+        List<KeyValue> results = entries(ledger.range(start, endKey), pageSize + 1);
+        String nextBookmark = "";
+        if (results.size() > pageSize) {
+            nextBookmark = results.remove(pageSize).getKey();
+        }
+        return new ResultsIterator<>(results, nextBookmark);
+    }
+
+    private static List<KeyValue> entries(final Map<String, byte[]> range, final int limit) {
+        List<KeyValue> results = new ArrayList<>(Math.min(limit, 1024));
+        for (Map.Entry<String, byte[]> entry : range.entrySet()) {
+            if (results.size() == limit) {
+                break;
+            }
+            results.add(new Entry(entry.getKey(), entry.getValue()));
+        }
+        return results;
+    }
+
+    private static final class Entry implements KeyValue {
+
+        private final String key;
+        private final byte[] value;
+
+        Entry(final String key, final byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+
+        @Override
+        public String getStringValue() {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class ResultsIterator<T> implements QueryResultsIterator<T>,
+            QueryResultsIteratorWithMetadata<T> {
+
+        private final List<T> results;
+        private final String bookmark;
+
+        ResultsIterator(final List<T> results, final String bookmark) {
+            this.results = results;
+            this.bookmark = bookmark;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return results.iterator();
+        }
+
+        @Override
+        public QueryResponseMetadata getMetadata() {
+            return QueryResponseMetadata.newBuilder()
+                    .setFetchedRecordsCount(results.size())
+                    .setBookmark(bookmark)
+                    .build();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
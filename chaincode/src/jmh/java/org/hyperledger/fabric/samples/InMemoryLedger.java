@@ -0,0 +1,218 @@
+package org.hyperledger.fabric.samples;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.contract.ContractInterface;
+import org.hyperledger.fabric.protos.peer.ChaincodeEvent;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Process-local stand-in for a peer: committed world state, key history and a transaction clock.
+ * <p>
+ * Transactions run through {@link #invoke} the same way the {@code ContractRouter} runs them
+ * (createContext, beforeTransaction, body, afterTransaction). Writes are buffered in the stub and only
+ * become visible once the transaction commits, so a transaction never reads its own writes, as on a real peer.
+ * Not thread safe; one ledger per benchmark thread.
+ */
+public final class InMemoryLedger {
+
+    public static final String CHANNEL_ID = "mychannel";
+
+    private static final Instant GENESIS = Instant.parse("2024-01-01T00:00:00Z");
+
+    private final NavigableMap<String, byte[]> state = new TreeMap<>();
+    private final Map<String, List<KeyModification>> history = new HashMap<>();
+    private final List<ChaincodeEvent> events = new ArrayList<>();
+
+    private long txCount;
+    private long countedTxs;
+    private long stateReads;
+    private long stateWrites;
+    private long bytesRead;
+    private long bytesWritten;
+
+    /**
+     * Runs one transaction against the ledger and commits its write set if the body returns normally.
+     */
+    public <T> T invoke(final ContractInterface contract, final String mspId, final String function,
+                        final Function<Context, T> body) {
+        return invoke(contract, mspId, function, Collections.emptyList(), body);
+    }
+
+    /**
+     * Same as {@link #invoke(ContractInterface, String, String, Function)} with the transaction arguments visible to
+     * {@code beforeTransaction}, as the router passes them; needed by the transactions authorized on their arguments.
+     */
+    public <T> T invoke(final ContractInterface contract, final String mspId, final String function,
+                        final List<String> parameters, final Function<Context, T> body) {
+        InMemoryChaincodeStub stub = newStub(mspId, function, parameters);
+        Context ctx = contract.createContext(stub);
+        contract.beforeTransaction(ctx);
+        T result = body.apply(ctx);
+        contract.afterTransaction(ctx, result);
+        commit(stub);
+        return result;
+    }
+
+    /**
+     * Creates a stub for a new transaction; each transaction is one second after the previous one.
+     */
+    public InMemoryChaincodeStub newStub(final String mspId, final String function, final String... parameters) {
+        return newStub(mspId, function, Arrays.asList(parameters));
+    }
+
+    private InMemoryChaincodeStub newStub(final String mspId, final String function, final List<String> parameters) {
+        txCount++;
+        Instant timestamp = GENESIS.plusSeconds(txCount);
+        String txId = String.format("%064x", txCount);
+        return new InMemoryChaincodeStub(this, txId, timestamp, FakeIdentity.creator(mspId), mspId, function,
+                parameters);
+    }
+
+    /**
+     * Applies the buffered writes of a stub and appends them to the key history.
+     */
+    public void commit(final InMemoryChaincodeStub stub) {
+        for (Map.Entry<String, byte[]> write : stub.getWriteSet().entrySet()) {
+            String key = write.getKey();
+            byte[] value = write.getValue();
+            if (value == null) {
+                state.remove(key);
+            } else {
+                state.put(key, value);
+            }
+            history.computeIfAbsent(key, k -> new ArrayList<>())
+                    .add(new Modification(stub.getTxId(), stub.getTxTimestamp(), value));
+        }
+        if (stub.getEvent() != null) {
+            events.add(stub.getEvent());
+        }
+    }
+
+    byte[] read(final String key) {
+        stateReads++;
+        byte[] value = state.get(key);
+        if (value != null) {
+            bytesRead += value.length;
+        }
+        return value;
+    }
+
+    void countWrite(final byte[] value) {
+        stateWrites++;
+        bytesWritten += value == null ? 0 : value.length;
+    }
+
+    NavigableMap<String, byte[]> range(final String startKey, final String endKey) {
+        stateReads++;
+        if (endKey.isEmpty()) {
+            return state.tailMap(startKey, true);
+        }
+        return state.subMap(startKey, true, endKey, false);
+    }
+
+    /**
+     * History of a key, newest first, as returned by {@code GetHistoryForKey} on a Fabric 2.x peer.
+     */
+    List<KeyModification> history(final String key) {
+        stateReads++;
+        List<KeyModification> mods = new ArrayList<>(history.getOrDefault(key, Collections.emptyList()));
+        Collections.reverse(mods);
+        return mods;
+    }
+
+    /**
+     * Resets the shim call and byte counters, e.g. once a benchmark has loaded its data.
+     */
+    public void resetCounters() {
+        countedTxs = txCount;
+        stateReads = 0;
+        stateWrites = 0;
+        bytesRead = 0;
+        bytesWritten = 0;
+    }
+
+    /**
+     * @return transactions since the last {@link #resetCounters()}
+     */
+    public long getCountedTxs() {
+        return txCount - countedTxs;
+    }
+
+    public int size() {
+        return state.size();
+    }
+
+    public List<ChaincodeEvent> getEvents() {
+        return events;
+    }
+
+    public long getTxCount() {
+        return txCount;
+    }
+
+    public long getStateReads() {
+        return stateReads;
+    }
+
+    public long getStateWrites() {
+        return stateWrites;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private static final class Modification implements KeyModification {
+
+        private final String txId;
+        private final Instant timestamp;
+        private final byte[] value;
+
+        Modification(final String txId, final Instant timestamp, final byte[] value) {
+            this.txId = txId;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+
+        @Override
+        public String getTxId() {
+            return txId;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value == null ? new byte[0] : value;
+        }
+
+        @Override
+        public String getStringValue() {
+            return new String(getValue(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return value == null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.hyperledger.fabric.samples;
+
+import org.hyperledger.fabric.contract.annotation.Transaction;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Authorization of the transactions of {@link BasilContract}, run by {@code beforeTransaction} so that unauthorized
+ * callers are turned away before the transaction body runs.
+ * <p>
+ * The rules are read once from the annotations of the contract: a {@link Transaction.TYPE#SUBMIT} transaction may only
+ * be submitted by the MSPs listed in the {@code writerMsps} setting of {@code basil.properties} (comma separated;
+ * unset or empty allows every MSP), which is decided from the identity alone without any state read. The list is part
+ * of the package, not of the peer, so that every endorser accepts or rejects the same proposals. An {@link OwnerOnly} transaction may in addition
+ * only be submitted by the owner of the plant. That takes the one read of the plant, which the context caches for the
+ * transaction body; plants that do not exist pass, so that the body reports them as not found.
+ * <p>
+ * Writes are buffered by the context until the body succeeds, so a rejected transaction leaves no write set.
+ */
+final class BasilAuthorizer {
+
+    private static final Logger LOGGER = Logger.getLogger(BasilAuthorizer.class.getName());
+
+    private static final int NOT_OWNER_ONLY = -1;
+
+    private final Map<String, Rule> rules = new HashMap<>();
+    private final Set<String> writers;
+
+    /**
+     * @param writers the MSPs allowed to submit, empty for all
+     */
+    BasilAuthorizer(final Class<?> contract, final Set<String> writers) {
+        this.writers = writers;
+        for (Method method : contract.getMethods()) {
+            Transaction transaction = method.getAnnotation(Transaction.class);
+            if (transaction == null) {
+                continue;
+            }
+            OwnerOnly ownerOnly = method.getAnnotation(OwnerOnly.class);
+            String name = transaction.name().isEmpty() ? method.getName() : transaction.name();
+            rules.put(name, new Rule(transaction.intent() == Transaction.TYPE.SUBMIT,
+                    ownerOnly == null ? NOT_OWNER_ONLY : ownerOnly.qrArgument()));
+        }
+    }
+
+    static BasilAuthorizer fromPackage(final Class<?> contract) {
+        String writers = BasilCodec.packagedSetting("writerMsps");
+        Set<String> allowed = new TreeSet<>();
+        if (writers != null) {
+            for (String writer : writers.split(",")) {
+                if (!writer.trim().isEmpty()) {
+                    allowed.add(writer.trim());
+                }
+            }
+        }
+        if (!allowed.isEmpty()) {
+            LOGGER.info("Transactions may only be submitted by " + allowed);
+        }
+        return new BasilAuthorizer(contract, Collections.unmodifiableSet(allowed));
+    }
+
+    /**
+     * @return why the transaction of the context is not allowed, or null if it is; unknown transactions are left
+     * to {@code unknownTransaction}
+     */
+    Denial check(final BasilContext ctx) {
+        Rule rule = rules.get(ctx.getFunctionName());
+        if (rule == null) {
+            return null;
+        }
+        String mspId = ctx.getClientMspId();
+        if (rule.submit && !writers.isEmpty() && !writers.contains(mspId)) {
+            return new Denial(BasilContract.AssetTransferErrors.ACCESS_DENIED,
+                    String.format("%s may not submit %s", mspId, ctx.getFunctionName()));
+        }
+        if (rule.qrArgument == NOT_OWNER_ONLY) {
+            return null;
+        }
+
+        List<String> parameters = ctx.getStub().getParameters();
+        if (rule.qrArgument >= parameters.size()) {
+            return new Denial(BasilContract.AssetTransferErrors.INVALID_ARGUMENT,
+                    String.format("Missing qr argument %d of %s", rule.qrArgument, ctx.getFunctionName()));
+        }
+        Basil basil = ctx.getBasil(parameters.get(rule.qrArgument));
+        if (basil != null && !mspId.equals(basil.getOwner())) {
+            return new Denial(BasilContract.AssetTransferErrors.NOT_THE_OWNER,
+                    "Action not allowed because doesnt correspond to the owner");
+        }
+        return null;
+    }
+
+    static final class Denial {
+
+        private final BasilContract.AssetTransferErrors code;
+        private final String message;
+
+        Denial(final BasilContract.AssetTransferErrors code, final String message) {
+            this.code = code;
+            this.message = message;
+        }
+
+        BasilContract.AssetTransferErrors getCode() {
+            return code;
+        }
+
+        String getMessage() {
+            return message;
+        }
+    }
+
+    private static final class Rule {
+
+        private final boolean submit;
+        private final int qrArgument;
+
+        Rule(final boolean submit, final int qrArgument) {
+            this.submit = submit;
+            this.qrArgument = qrArgument;
+        }
+    }
+}
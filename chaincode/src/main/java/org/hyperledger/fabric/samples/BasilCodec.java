@@ -0,0 +1,342 @@
+package org.hyperledger.fabric.samples;
+
+import com.owlike.genson.Genson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Ledger encoding of {@link Basil}, {@link BasilLeg} and {@link TrackSummary}.
+ * <p>
+ * Records are written in a compact, versioned binary layout:
+ * <pre>
+ * byte    version (1)
+ * byte    record type (1 = Basil, 2 = BasilLeg, 3 = TrackSummary)
+ * fields  in declaration order; strings as varint (byte length + 1, 0 for null) followed by UTF-8 bytes,
+ *         longs as zig-zag varints, doubles as their 8 IEEE 754 bytes, little endian
+ * </pre>
+ * The version byte can never start a JSON text, so records written by earlier versions of the chaincode with
+ * Genson are still recognized and decoded.
+ * <p>
+ * CouchDB can only index and query JSON documents. Channels that serve rich queries package the chaincode with
+ * {@code stateFormat=json} in {@code basil.properties}, which keeps writing the Genson JSON records instead. The
+ * format is part of the package, not of the peer: the records are in the write sets, which every endorser must
+ * produce byte for byte the same.
+ */
+final class BasilCodec {
+
+    static final byte VERSION_1 = 1;
+
+    static final byte TYPE_BASIL = 1;
+    static final byte TYPE_BASIL_LEG = 2;
+    static final byte TYPE_TRACK_SUMMARY = 3;
+
+    /**
+     * Whether records are written as Genson JSON rather than binary, see {@code basil.properties}.
+     */
+    static final boolean JSON_RECORDS = "json".equalsIgnoreCase(packagedSetting("stateFormat"));
+
+    private static final Genson GENSON = new Genson();
+
+    private BasilCodec() {
+    }
+
+    /**
+     * @return a setting of the {@code basil.properties} packaged with the chaincode, or null if it is not set
+     */
+    static String packagedSetting(final String name) {
+        Properties settings = new Properties();
+        try (InputStream in = BasilCodec.class.getResourceAsStream("basil.properties")) {
+            if (in != null) {
+                settings.load(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read basil.properties", e);
+        }
+        return settings.getProperty(name);
+    }
+
+    static byte[] encode(final Basil basil) {
+        if (JSON_RECORDS) {
+            return GENSON.serialize(basil).getBytes(StandardCharsets.UTF_8);
+        }
+        Encoder out = new Encoder(TYPE_BASIL);
+        out.writeString(basil.getQr());
+        out.writeString(basil.getExtraInfo());
+        out.writeString(basil.getOwner());
+        out.writeString(basil.getBasilLeg());
+        return out.toByteArray();
+    }
+
+    static byte[] encode(final BasilLeg basilLeg) {
+        if (JSON_RECORDS) {
+            return GENSON.serialize(basilLeg).getBytes(StandardCharsets.UTF_8);
+        }
+        Encoder out = new Encoder(TYPE_BASIL_LEG);
+        out.writeString(basilLeg.getId());
+        out.writeLong(basilLeg.getTimestamp());
+        out.writeString(basilLeg.getGpsPosition());
+        out.writeString(basilLeg.getBasil());
+        return out.toByteArray();
+    }
+
+    static byte[] encode(final TrackSummary summary) {
+        if (JSON_RECORDS) {
+            return GENSON.serialize(summary).getBytes(StandardCharsets.UTF_8);
+        }
+        Encoder out = new Encoder(TYPE_TRACK_SUMMARY);
+        out.writeString(summary.getQr());
+        out.writeLong(summary.getLegCount());
+        out.writeDouble(summary.getDistanceMeters());
+        out.writeLong(summary.getFirstTimestamp());
+        out.writeLong(summary.getLastTimestamp());
+        out.writeLong(summary.getLastMoveTimestamp());
+        out.writeLong(summary.getMaxDwellSeconds());
+        out.writeString(summary.getLastPosition());
+        out.writeString(summary.getLastLegKey());
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the decoded record, or null for a missing (empty) state value
+     */
+    static Basil decodeBasil(final byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (isLegacyJson(value)) {
+            return GENSON.deserialize(new String(value, StandardCharsets.UTF_8), Basil.class);
+        }
+        Decoder in = new Decoder(value, TYPE_BASIL);
+        return new Basil(in.readString(), in.readString(), in.readString(), in.readString());
+    }
+
+    /**
+     * @return the decoded record, or null for a missing (empty) state value
+     */
+    static BasilLeg decodeBasilLeg(final byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (isLegacyJson(value)) {
+            return GENSON.deserialize(new String(value, StandardCharsets.UTF_8), BasilLeg.class);
+        }
+        Decoder in = new Decoder(value, TYPE_BASIL_LEG);
+        return new BasilLeg(in.readString(), in.readLong(), in.readString(), in.readString());
+    }
+
+    /**
+     * @return the decoded record, or null for a missing (empty) state value
+     */
+    static TrackSummary decodeTrackSummary(final byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        if (isLegacyJson(value)) {
+            return GENSON.deserialize(new String(value, StandardCharsets.UTF_8), TrackSummary.class);
+        }
+        Decoder in = new Decoder(value, TYPE_TRACK_SUMMARY);
+        return new TrackSummary(in.readString(), in.readLong(), in.readDouble(), in.readLong(), in.readLong(),
+                in.readLong(), in.readLong(), in.readString(), in.readString());
+    }
+
+    /**
+     * Reads only the current leg key of a stored {@link Basil} record, skipping the fields before it.
+     */
+    static String readBasilLeg(final byte[] value) {
+        if (isLegacyJson(value)) {
+            return decodeBasil(value).getBasilLeg();
+        }
+        Decoder in = new Decoder(value, TYPE_BASIL);
+        in.skipString();
+        in.skipString();
+        in.skipString();
+        return in.readString();
+    }
+
+    /**
+     * Writes a stored record of either format as JSON, with the same field names and order Genson produces.
+     */
+    static void writeJson(final byte[] value, final JsonWriter out) {
+        if (isLegacyJson(value)) {
+            out.rawValue(new String(value, StandardCharsets.UTF_8));
+            return;
+        }
+        if (value.length < 2 || value[0] != VERSION_1) {
+            throw new IllegalArgumentException("Unknown record format " + (value.length == 0 ? "<empty>" : value[0]));
+        }
+        if (value[1] == TYPE_BASIL) {
+            Decoder in = new Decoder(value, TYPE_BASIL);
+            String qr = in.readString();
+            String extraInfo = in.readString();
+            String owner = in.readString();
+            String basilLeg = in.readString();
+            out.beginObject()
+                    .name("basilLeg").value(basilLeg)
+                    .name("extraInfo").value(extraInfo)
+                    .name("owner").value(owner)
+                    .name("qr").value(qr)
+                    .endObject();
+        } else {
+            Decoder in = new Decoder(value, TYPE_BASIL_LEG);
+            String id = in.readString();
+            long timestamp = in.readLong();
+            String gpsPosition = in.readString();
+            String basil = in.readString();
+            out.beginObject()
+                    .name("basil").value(basil)
+                    .name("gpsPosition").value(gpsPosition)
+                    .name("id").value(id)
+                    .name("timestamp").value(timestamp)
+                    .endObject();
+        }
+    }
+
+    static boolean isLegacyJson(final byte[] value) {
+        return value.length > 0 && value[0] == '{';
+    }
+
+    /**
+     * @return whether the value is a stored {@link Basil} record of either format; the legs written before the
+     * composite leg keys are JSON records without an owner
+     */
+    static boolean isBasil(final byte[] value) {
+        if (isLegacyJson(value)) {
+            return GENSON.deserialize(new String(value, StandardCharsets.UTF_8), Map.class).containsKey("owner");
+        }
+        return value.length > 1 && value[0] == VERSION_1 && value[1] == TYPE_BASIL;
+    }
+
+    private static final class Encoder {
+
+        private byte[] buffer = new byte[128];
+        private int position;
+
+        Encoder(final byte type) {
+            buffer[position++] = VERSION_1;
+            buffer[position++] = type;
+        }
+
+        void writeString(final String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            int length = value.length();
+            // fast path for ASCII, which is what qr codes, MSP ids, keys and positions are made of
+            ensureCapacity(5 + length);
+            int lengthPosition = position;
+            writeVarint(length + 1);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    position = lengthPosition;
+                    writeBytes(value.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                buffer[position++] = (byte) c;
+            }
+        }
+
+        void writeLong(final long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(final double value) {
+            ensureCapacity(Double.BYTES);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 0; i < Double.BYTES; i++) {
+                buffer[position++] = (byte) (bits >>> (8 * i));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void writeBytes(final byte[] bytes) {
+            ensureCapacity(5 + bytes.length);
+            writeVarint(bytes.length + 1);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void writeVarint(final long value) {
+            ensureCapacity(10);
+            long remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            buffer[position++] = (byte) remaining;
+        }
+
+        private void ensureCapacity(final int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+    }
+
+    private static final class Decoder {
+
+        private final byte[] buffer;
+        private int position;
+
+        Decoder(final byte[] buffer, final byte type) {
+            if (buffer.length < 2 || buffer[0] != VERSION_1) {
+                throw new IllegalArgumentException("Unknown record format " + buffer[0]);
+            }
+            if (buffer[1] != type) {
+                throw new IllegalArgumentException("Expected record type " + type + " but found " + buffer[1]);
+            }
+            this.buffer = buffer;
+            this.position = 2;
+        }
+
+        String readString() {
+            int length = (int) readVarint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skipString() {
+            int length = (int) readVarint() - 1;
+            position += Math.max(0, length);
+        }
+
+        long readLong() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < Double.BYTES; i++) {
+                bits |= (buffer[position++] & 0xFFL) << (8 * i);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package org.hyperledger.fabric.samples;
+
+import org.hyperledger.fabric.contract.Context;
+import org.hyperledger.fabric.protos.peer.QueryResponseMetadata;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Transaction context of {@link BasilContract} with a read-through state cache.
+ * <p>
+ * Every {@code getState} is a round trip from the chaincode container to the peer, so each key is fetched at most
+ * once per transaction and the decoded {@link Basil}/{@link BasilLeg} objects are kept alongside. Writes are
+ * buffered and handed to the stub in one go by {@link #flush()} once the transaction body has succeeded; reads of
+ * a key written earlier in the same transaction return the pending value.
+ * <p>
+ * The context also accounts for the shim calls and bytes of its transaction, which {@link BasilMetrics} records
+ * when the transaction ends. Queries go through the context for that reason.
+ * <p>
+ * A transaction can only set one chaincode event, so the tracking changes of a transaction are collected and
+ * emitted together as one {@value #TRACKING_EVENT} event by {@link #flush()}.
+ */
+public final class BasilContext extends Context {
+
+    /**
+     * Name of the chaincode event listing the tracking changes of a transaction. The payload is a JSON array of
+     * {@code {"op","qr","owner","basilLeg","gpsPosition","timestamp"}} objects in the order of the changes; the
+     * leg fields are null for {@code STOP}, and the position and timestamp for {@code TRANSFER}.
+     */
+    public static final String TRACKING_EVENT = "BasilTracking";
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Map<String, byte[]> reads = new HashMap<>();
+    private final Map<String, byte[]> writes = new LinkedHashMap<>();
+    private final Map<String, Object> decoded = new HashMap<>();
+    private final List<TrackingChange> changes = new ArrayList<>();
+    private final Map<String, Long> ownerDeltas = new TreeMap<>();
+
+    private String clientMspId;
+    private long startNanos = System.nanoTime();
+    private long shimCalls;
+    private long bytesRead;
+    private long bytesWritten;
+    private boolean recorded;
+
+    public BasilContext(final ChaincodeStub stub) {
+        super(stub);
+    }
+
+    /**
+     * @return the MSP of the submitter, looked up once per transaction for the authorization and the body alike
+     */
+    public String getClientMspId() {
+        if (clientMspId == null) {
+            clientMspId = getClientIdentity().getMSPID();
+        }
+        return clientMspId;
+    }
+
+    /**
+     * @return the value of the key, an empty array if it does not exist or is deleted in this transaction
+     */
+    public byte[] getState(final String key) {
+        if (writes.containsKey(key)) {
+            byte[] pending = writes.get(key);
+            return pending == null ? EMPTY : pending;
+        }
+        byte[] value = reads.get(key);
+        if (value == null) {
+            value = stub.getState(key);
+            shimCalls++;
+            if (value == null) {
+                value = EMPTY;
+            }
+            bytesRead += value.length;
+            reads.put(key, value);
+        }
+        return value;
+    }
+
+    public boolean exists(final String key) {
+        return getState(key).length > 0;
+    }
+
+    /**
+     * @return the plant, or null if it is not tracked
+     */
+    public Basil getBasil(final String qr) {
+        Object cached = decoded.get(qr);
+        if (cached instanceof Basil) {
+            return (Basil) cached;
+        }
+        Basil basil = BasilCodec.decodeBasil(getState(qr));
+        if (basil != null) {
+            decoded.put(qr, basil);
+        }
+        return basil;
+    }
+
+    /**
+     * @return the leg stored under the key, or null if there is none
+     */
+    public BasilLeg getBasilLeg(final String key) {
+        Object cached = decoded.get(key);
+        if (cached instanceof BasilLeg) {
+            return (BasilLeg) cached;
+        }
+        BasilLeg basilLeg = BasilCodec.decodeBasilLeg(getState(key));
+        if (basilLeg != null) {
+            decoded.put(key, basilLeg);
+        }
+        return basilLeg;
+    }
+
+    /**
+     * @return the route summary stored under the key, or null if there is none
+     */
+    public TrackSummary getTrackSummary(final String key) {
+        Object cached = decoded.get(key);
+        if (cached instanceof TrackSummary) {
+            return (TrackSummary) cached;
+        }
+        TrackSummary summary = BasilCodec.decodeTrackSummary(getState(key));
+        if (summary != null) {
+            decoded.put(key, summary);
+        }
+        return summary;
+    }
+
+    public void putBasil(final Basil basil) {
+        putState(basil.getQr(), BasilCodec.encode(basil));
+        decoded.put(basil.getQr(), basil);
+    }
+
+    public void putBasilLeg(final BasilLeg basilLeg) {
+        putState(basilLeg.getId(), BasilCodec.encode(basilLeg));
+        decoded.put(basilLeg.getId(), basilLeg);
+    }
+
+    public void putTrackSummary(final String key, final TrackSummary summary) {
+        putState(key, BasilCodec.encode(summary));
+        decoded.put(key, summary);
+    }
+
+    public void putState(final String key, final byte[] value) {
+        decoded.remove(key);
+        writes.put(key, value);
+    }
+
+    public void delState(final String key) {
+        decoded.remove(key);
+        writes.put(key, null);
+    }
+
+    /**
+     * Adds a change to the {@value #TRACKING_EVENT} event of this transaction.
+     *
+     * @param basilLeg the current leg after the change, null if the position did not change or the plant is gone
+     */
+    public void addTrackingEvent(final String op, final Basil basil, final BasilLeg basilLeg) {
+        changes.add(new TrackingChange(op, basil.getQr(), basil.getOwner(), basil.getBasilLeg(), basilLeg));
+    }
+
+    /**
+     * Adds to the number of plants the owner holds, as counted by the statistics of this transaction.
+     */
+    public void addOwnerDelta(final String owner, final long delta) {
+        ownerDeltas.merge(owner, delta, Long::sum);
+    }
+
+    /**
+     * @return the plant count changes of this transaction by owner, in owner order; emptied by the caller
+     */
+    Map<String, Long> getOwnerDeltas() {
+        return ownerDeltas;
+    }
+
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(final CompositeKey compositeKey) {
+        shimCalls++;
+        return new CountingIterator<>(stub.getStateByPartialCompositeKey(compositeKey),
+                kv -> kv.getKey().length() + kv.getValue().length);
+    }
+
+    public QueryResultsIterator<KeyModification> getHistoryForKey(final String key) {
+        shimCalls++;
+        return new CountingIterator<>(stub.getHistoryForKey(key), m -> m.getValue().length);
+    }
+
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByPartialCompositeKeyWithPagination(
+            final CompositeKey compositeKey, final int pageSize, final String bookmark) {
+        shimCalls++;
+        return new CountingIterator<>(
+                stub.getStateByPartialCompositeKeyWithPagination(compositeKey, pageSize, bookmark),
+                kv -> kv.getKey().length() + kv.getValue().length);
+    }
+
+    public QueryResultsIteratorWithMetadata<KeyValue> getStateByRangeWithPagination(final String startKey,
+                                                                                    final String endKey,
+                                                                                    final int pageSize,
+                                                                                    final String bookmark) {
+        shimCalls++;
+        return new CountingIterator<>(stub.getStateByRangeWithPagination(startKey, endKey, pageSize, bookmark),
+                kv -> kv.getKey().length() + kv.getValue().length);
+    }
+
+    public QueryResultsIteratorWithMetadata<KeyValue> getQueryResultWithPagination(final String query,
+                                                                                  final int pageSize,
+                                                                                  final String bookmark) {
+        shimCalls++;
+        return new CountingIterator<>(stub.getQueryResultWithPagination(query, pageSize, bookmark),
+                kv -> kv.getKey().length() + kv.getValue().length);
+    }
+
+    /**
+     * Hands the buffered writes to the stub, in the order of their first write.
+     */
+    public void flush() {
+        for (Map.Entry<String, byte[]> write : writes.entrySet()) {
+            if (write.getValue() == null) {
+                stub.delState(write.getKey());
+            } else {
+                stub.putState(write.getKey(), write.getValue());
+                bytesWritten += write.getValue().length;
+            }
+            shimCalls++;
+        }
+        writes.clear();
+
+        if (!changes.isEmpty()) {
+            JsonWriter payload = JsonWriter.acquire().beginArray();
+            for (TrackingChange change : changes) {
+                change.writeJson(payload);
+            }
+            stub.setEvent(TRACKING_EVENT, payload.endArray().toString().getBytes(StandardCharsets.UTF_8));
+            changes.clear();
+        }
+    }
+
+    /**
+     * Restarts the latency clock, the context is created just before the transaction starts.
+     */
+    void start() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return true the first time only
+     */
+    boolean markRecorded() {
+        if (recorded) {
+            return false;
+        }
+        recorded = true;
+        return true;
+    }
+
+    /**
+     * @return the transaction function without the contract name prefix
+     */
+    String getFunctionName() {
+        String function = stub.getFunction();
+        if (function == null) {
+            return "";
+        }
+        int separator = function.indexOf(':');
+        return separator < 0 ? function : function.substring(separator + 1);
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getShimCalls() {
+        return shimCalls;
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private static final class TrackingChange {
+
+        private final String op;
+        private final String qr;
+        private final String owner;
+        private final String basilLeg;
+        private final String gpsPosition;
+        private final Long timestamp;
+
+        TrackingChange(final String op, final String qr, final String owner, final String basilLeg,
+                       final BasilLeg leg) {
+            this.op = op;
+            this.qr = qr;
+            this.owner = owner;
+            this.basilLeg = "STOP".equals(op) ? null : basilLeg;
+            this.gpsPosition = leg == null ? null : leg.getGpsPosition();
+            this.timestamp = leg == null ? null : leg.getTimestamp();
+        }
+
+        void writeJson(final JsonWriter out) {
+            out.beginObject()
+                    .name("op").value(op)
+                    .name("qr").value(qr)
+                    .name("owner").value(owner)
+                    .name("basilLeg").value(basilLeg)
+                    .name("gpsPosition").value(gpsPosition)
+                    .name("timestamp");
+            if (timestamp == null) {
+                out.nullValue();
+            } else {
+                out.value(timestamp);
+            }
+            out.endObject();
+        }
+    }
+
+    /**
+     * Counts the bytes of the results as they are consumed.
+     */
+    private final class CountingIterator<T> implements QueryResultsIterator<T>, QueryResultsIteratorWithMetadata<T> {
+
+        private final Iterable<T> delegate;
+        private final AutoCloseable closeable;
+        private final QueryResponseMetadata metadata;
+        private final ToIntFunction<T> size;
+
+        CountingIterator(final QueryResultsIterator<T> delegate, final ToIntFunction<T> size) {
+            this.delegate = delegate;
+            this.closeable = delegate;
+            this.metadata = null;
+            this.size = size;
+        }
+
+        CountingIterator(final QueryResultsIteratorWithMetadata<T> delegate, final ToIntFunction<T> size) {
+            this.delegate = delegate;
+            this.closeable = delegate;
+            this.metadata = delegate.getMetadata();
+            this.size = size;
+        }
+
+        @Override
+        public QueryResponseMetadata getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            Iterator<T> results = delegate.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return results.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    T result = results.next();
+                    bytesRead += size.applyAsInt(result);
+                    return result;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws Exception {
+            closeable.close();
+        }
+    }
+}
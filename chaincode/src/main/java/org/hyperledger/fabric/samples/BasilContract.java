@@ -1,15 +1,22 @@
 package org.hyperledger.fabric.samples;
 
 
-import com.owlike.genson.Genson;
 import org.hyperledger.fabric.contract.Context;
 import org.hyperledger.fabric.contract.ContractInterface;
 import org.hyperledger.fabric.contract.annotation.*;
 import org.hyperledger.fabric.shim.ChaincodeException;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
 import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIteratorWithMetadata;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.*;
 
 @Contract(
@@ -28,188 +35,1307 @@ import java.util.*;
 @Default
 public final class BasilContract implements ContractInterface {
 
-    private final Genson genson = new Genson();
+    /**
+     * Upper bound on the items of a batch transaction, keeps the write set well below the orderer's
+     * block size limits.
+     */
+    static final int MAX_BATCH_SIZE = 1000;
 
-    private enum AssetTransferErrors {
+    /**
+     * Upper bound on the page size of paginated queries.
+     */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Composite key object type of the legs, keyed by (qr, zero-padded epoch second, transaction).
+     */
+    static final String BASIL_LEG_TYPE = "BasilLeg";
+
+    /**
+     * Composite key object type of the owner index, keyed by (owner, qr). Works on LevelDB and CouchDB alike.
+     */
+    static final String OWNER_INDEX_TYPE = "owner~qr";
+
+    /**
+     * CouchDB index on the owner field, see META-INF/statedb/couchdb/indexes/indexOwner.json.
+     */
+    private static final String OWNER_INDEX_DDOC = "_design/indexOwnerDoc";
+    private static final String OWNER_INDEX_NAME = "indexOwner";
+
+    /**
+     * Value of the index entries; the peer treats an empty value as a delete.
+     */
+    private static final byte[] INDEX_VALUE = {0};
+
+    /**
+     * Composite key object type of the newest-first index of the legs, keyed by (qr, {@link Long#MAX_VALUE} minus
+     * the transaction time in nanoseconds, transaction). The value is the leg key. Range queries only run in
+     * ascending key order, so the first entry under a qr is its most recent leg.
+     */
+    static final String NEWEST_LEG_INDEX_TYPE = "newest~leg";
+
+    /**
+     * Composite key object type of the spatial index of the current positions, keyed by one attribute per
+     * character of the {@link GeoHash#PRECISION}-character geohash, then the qr. The value is the position.
+     */
+    static final String GEO_INDEX_TYPE = "geo~qr";
+
+    /**
+     * Composite key object type of the route summaries, keyed by qr, see {@link TrackSummary}. They are updated with
+     * the basil record, by the transactions that create and move plants; like the legs, they outlive the plant.
+     */
+    static final String TRACK_SUMMARY_TYPE = "summary~qr";
+
+    /**
+     * Composite key object type of the plant counters, keyed by (shard, minute, owner, transaction). Every transaction
+     * that changes the number of plants of an owner writes its delta blind under its own key, in the shard of its
+     * transaction id and the minute of its timestamp, so writers never read or share a counter key.
+     * {@code CompactStatistics} folds the deltas of past minutes into one entry per owner, keyed by (shard,
+     * {@value #STATISTICS_BASE}, owner).
+     */
+    static final String STATISTICS_TYPE = "stats~owner";
+    static final String STATISTICS_BASE = "base";
+    static final int STATISTICS_SHARDS = 16;
+
+    /**
+     * Composite key object type of the first minute not yet compacted, keyed by shard.
+     */
+    static final String STATISTICS_COMPACTED_TYPE = "stats~compacted";
+
+    /**
+     * Upper bound on the minutes folded by one {@code CompactStatistics}, and how far back the first one of a shard
+     * starts.
+     */
+    static final int MAX_COMPACTED_MINUTES = 60;
+
+    /**
+     * Upper bound on the geohash cells scanned for a bounding box; larger boxes are covered by coarser cells.
+     */
+    private static final int MAX_COVERING_CELLS = 32;
+
+    enum AssetTransferErrors {
         BASIL_NOT_FOUND,
         BASIL_ALREADY_EXISTS,
         NOT_THE_OWNER,
+        INVALID_ARGUMENT,
+        ACCESS_DENIED,
+    }
+
+    private final BasilMetrics metrics = BasilMetrics.fromEnvironment();
+    private final BasilAuthorizer authorizer = BasilAuthorizer.fromPackage(BasilContract.class);
+
+    @Override
+    public Context createContext(final ChaincodeStub stub) {
+        return new BasilContext(stub);
+    }
+
+    /**
+     * Turns unauthorized callers away before the transaction body reads or writes anything, see
+     * {@link BasilAuthorizer}.
+     */
+    @Override
+    public void beforeTransaction(final Context ctx) {
+        BasilContext basilContext = (BasilContext) ctx;
+        basilContext.start();
+        BasilAuthorizer.Denial denial = authorizer.check(basilContext);
+        if (denial != null) {
+            throw error(basilContext, denial.getCode(), denial.getMessage());
+        }
+    }
+
+    /**
+     * Hands the writes buffered by the context to the peer. Not called when the transaction fails, in which case
+     * there is nothing to write; failures are recorded where they are thrown, see {@link #error}.
+     */
+    @Override
+    public void afterTransaction(final Context ctx, final Object result) {
+        BasilContext basilContext = (BasilContext) ctx;
+        putStatisticsDeltas(basilContext);
+        basilContext.flush();
+        metrics.record(basilContext, null);
+    }
+
+    @Override
+    public void unknownTransaction(final Context ctx) {
+        metrics.record((BasilContext) ctx, "UNKNOWN_TRANSACTION");
+        throw new ChaincodeException("Undefined contract method called");
     }
 
     @Transaction(intent = Transaction.TYPE.SUBMIT)
-    public String CreateTracking(final Context ctx, final String qr, final String extraInfo,final String gpsPosition) {
-        ChaincodeStub stub = ctx.getStub();
+    public String CreateTracking(final BasilContext ctx, final String qr, final String extraInfo,final String gpsPosition) {
+        GeoPosition position = parsePosition(ctx, gpsPosition);
 
         if (checkIfExists(ctx, qr)) {
             String errorMessage = String.format("Basil %s already exists", qr);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.BASIL_ALREADY_EXISTS.toString());
+            throw error(ctx, AssetTransferErrors.BASIL_ALREADY_EXISTS, errorMessage);
         }
 
-        String submittingOrg = ctx.getClientIdentity().getMSPID();
+        String submittingOrg = ctx.getClientMspId();
+
+        putTracking(ctx, qr, extraInfo, submittingOrg, gpsPosition, position, 0);
+
+        return "Plant created successfully";
+    }
+
+    @OwnerOnly
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String StopTracking(final BasilContext ctx, final String qr) {
+        if (!checkIfExists(ctx, qr)) {
+            String errorMessage = String.format("Basil %s does not exist", qr);
+            throw error(ctx, AssetTransferErrors.BASIL_NOT_FOUND, errorMessage);
+        }
 
-        BasilLeg basilLeg= new BasilLeg(ctx.getStub().getTxTimestamp().getEpochSecond(), gpsPosition, qr);
+        Basil basil = ctx.getBasil(qr);
 
-        System.out.println(basilLeg);
+        // the legs stay on the ledger as the plant's route
+        deleteGeoIndex(ctx, basil);
+        ctx.delState(qr);
+        ctx.delState(ownerIndexKey(ctx, basil.getOwner(), qr));
+        ctx.addOwnerDelta(basil.getOwner(), -1);
+        ctx.addTrackingEvent("STOP", basil, null);
+        return "Plant deleted successfully";
+    }
 
-        String basilLegJson=genson.serialize(basilLeg);
-        stub.putStringState(basilLeg.getId(), basilLegJson);
+    @OwnerOnly
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String UpdateTracking(final BasilContext ctx, final String qr, final String gpsPosition) {
+        GeoPosition position = parsePosition(ctx, gpsPosition);
 
-        Basil newBasil = new Basil(qr,extraInfo,submittingOrg,basilLeg.getId());
+        if (!checkIfExists(ctx, qr)) {
+            String errorMessage = String.format("Basil %s does not exist", qr);
+            throw error(ctx, AssetTransferErrors.BASIL_NOT_FOUND, errorMessage);
+        }
 
-        System.out.println();
-        System.out.println("CreateTracking: basil.getOwner() = " + newBasil.getOwner());
-        System.out.println();
+        Basil basil = ctx.getBasil(qr);
 
-        String basilJson = genson.serialize(newBasil);
-        stub.putStringState(qr, basilJson);
+        moveTracking(ctx, basil, gpsPosition, position, 0);
 
-        return "Plant created successfully";
+        return "Plant updated successfully";
     }
 
+    /**
+     * Records a new position of a plant without writing its basil record.
+     * <p>
+     * {@code UpdateTracking} rewrites the basil record, so concurrent updates of one plant invalidate each other
+     * with MVCC_READ_CONFLICT. This transaction only writes keys unique to the transaction, the new leg and its
+     * entry in the newest-leg index; the basil record is read for the owner check but not written. Concurrent
+     * position updates therefore never conflict, only an update racing a transfer or stop of the plant does, and
+     * then rightly fails.
+     * <p>
+     * The current leg is resolved when it is read, from the newest-leg index. The spatial index and the history of
+     * the basil record are not updated; they follow {@code UpdateTracking}, while {@code GetLegsInRange},
+     * {@code GetActualTracking} and {@code GetTrackSummary} see every position.
+     */
+    @OwnerOnly
     @Transaction(intent = Transaction.TYPE.SUBMIT)
-    public String StopTracking(final Context ctx, final String qr) {
-        ChaincodeStub stub = ctx.getStub();
+    public String UpdatePosition(final BasilContext ctx, final String qr, final String gpsPosition) {
+        parsePosition(ctx, gpsPosition);
 
-        if (!checkIfExists(ctx, qr)) {
+        Basil basil = ctx.getBasil(qr);
+        if (basil == null) {
             String errorMessage = String.format("Basil %s does not exist", qr);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.BASIL_NOT_FOUND.toString());
+            throw error(ctx, AssetTransferErrors.BASIL_NOT_FOUND, errorMessage);
         }
 
-        String submittingOrg = ctx.getClientIdentity().getMSPID();
+        BasilLeg basilLeg = putLeg(ctx, qr, gpsPosition, 0);
+        ctx.addTrackingEvent("UPDATE", new Basil(qr, basil.getExtraInfo(), basil.getOwner(), basilLeg.getId()),
+                basilLeg);
 
-        String basilJSON = stub.getStringState(qr);
-        Basil basil = genson.deserialize(basilJSON, Basil.class);
+        return "Position recorded successfully";
+    }
+
+    /**
+     * Returns the route aggregates of a plant: the number of legs, the haversine distance between their positions,
+     * the first and last timestamp, and the longest dwell, the time between two moves. {@code currentDwellSeconds}
+     * is the time since the last move, as of this transaction.
+     * <p>
+     * They are read from the summary record of the plant, extended with the legs written after it, by
+     * {@code UpdateTracking} as well as {@code UpdatePosition}, so they agree with {@code GetActualTracking}. Plants
+     * tracked before the summaries existed get theirs from their route, see {@code summarizeRoute}, until
+     * {@code SummarizeTracking} stores it.
+     *
+     * @return {@code {"qr","legCount","distanceMeters","firstTimestamp","lastTimestamp","lastMoveTimestamp",
+     * "maxDwellSeconds","currentDwellSeconds","lastPosition"}}
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String GetTrackSummary(final BasilContext ctx, final String qr) {
+        TrackSummary summary = getTrackSummary(ctx, qr, false);
+        if (summary == null) {
+            String errorMessage = String.format("Basil %s does not exist", qr);
+            throw error(ctx, AssetTransferErrors.BASIL_NOT_FOUND, errorMessage);
+        }
+
+        long now = ctx.getStub().getTxTimestamp().getEpochSecond();
+        return JsonWriter.acquire().beginObject()
+                .name("qr").value(summary.getQr())
+                .name("legCount").value(summary.getLegCount())
+                .name("distanceMeters").value(summary.getDistanceMeters())
+                .name("firstTimestamp").value(summary.getFirstTimestamp())
+                .name("lastTimestamp").value(summary.getLastTimestamp())
+                .name("lastMoveTimestamp").value(summary.getLastMoveTimestamp())
+                .name("maxDwellSeconds").value(summary.getMaxDwellSeconds())
+                .name("currentDwellSeconds").value(Math.max(0, now - summary.getLastMoveTimestamp()))
+                .name("lastPosition").value(summary.getLastPosition())
+                .endObject().toString();
+    }
 
+    /**
+     * Stores the route summaries of many plants up to their newest leg, so that {@code GetTrackSummary} starts from
+     * there. Plants tracked before the summaries existed get their first one, summed up from their route, the others
+     * have the legs written since their summary added.
+     * <p>
+     * Maintenance transaction, e.g. run once over all plants after an upgrade and then periodically for the plants
+     * that move a lot; the updates of plants never do this work. It reads every leg of each plant, so it fails with a
+     * phantom read conflict if a plant gets a new leg before it commits and can simply be run again for it.
+     *
+     * @param qrsJson JSON array of qr codes
+     * @return JSON object with one result per input item, in input order
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String SummarizeTracking(final BasilContext ctx, final String qrsJson) {
+        JSONArray qrs = parseBatch(ctx, qrsJson);
+
+        BatchResult result = new BatchResult(qrs.length());
+        for (int i = 0; i < qrs.length(); i++) {
+            Object item = qrs.opt(i);
+            String qr = item instanceof String ? (String) item : null;
+            if (qr == null || qr.isEmpty()) {
+                result.failed(qr, AssetTransferErrors.INVALID_ARGUMENT, String.format("Item %d is not a qr", i));
+                continue;
+            }
 
-        if (!basil.getOwner().equals(submittingOrg)) {
-            String errorMessage = "Action not allowed because doesnt correspond to the owner";
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.NOT_THE_OWNER.toString());
+            String key = trackSummaryKey(ctx, qr);
+            TrackSummary stored = ctx.getTrackSummary(key);
+            String storedLegKey = stored == null ? null : stored.getLastLegKey();
+            TrackSummary summary = getTrackSummary(ctx, qr, true);
+            if (summary == null) {
+                result.failed(qr, AssetTransferErrors.BASIL_NOT_FOUND, String.format("Basil %s does not exist", qr));
+                continue;
+            }
+            if (stored == null || !Objects.equals(storedLegKey, summary.getLastLegKey())) {
+                ctx.putTrackSummary(key, summary);
+            }
+            result.succeeded(qr);
         }
+        return result.toString();
+    }
 
-        stub.delState(qr);
-        stub.delState(basil.getBasilLeg());
-        return "Plant deleted successfully";
+    /**
+     * Creates the tracking of many plants in a single transaction.
+     *
+     * @param plantsJson JSON array of {@code {"qr", "extraInfo", "gpsPosition"}} objects
+     * @return JSON object with one result per input item, in input order
+     */
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String CreateTrackingBatch(final BasilContext ctx, final String plantsJson) {
+        JSONArray plants = parseBatch(ctx, plantsJson);
+
+        String submittingOrg = ctx.getClientMspId();
+
+        // the context reads its own pending writes, so duplicates inside the batch show up as existing plants
+        BatchResult result = new BatchResult(plants.length());
+        for (int i = 0; i < plants.length(); i++) {
+            JSONObject plant = plants.optJSONObject(i);
+            String qr = plant == null ? null : plant.optString("qr", null);
+            if (qr == null || qr.isEmpty()) {
+                result.failed(qr, AssetTransferErrors.INVALID_ARGUMENT, String.format("Item %d has no qr", i));
+                continue;
+            }
+            if (checkIfExists(ctx, qr)) {
+                result.failed(qr, AssetTransferErrors.BASIL_ALREADY_EXISTS, String.format("Basil %s already exists", qr));
+                continue;
+            }
+
+            String gpsPosition = plant.optString("gpsPosition", "");
+            GeoPosition position = GeoPosition.parse(gpsPosition);
+            if (position == null) {
+                result.failed(qr, AssetTransferErrors.INVALID_ARGUMENT, invalidPositionMessage(gpsPosition));
+                continue;
+            }
+
+            putTracking(ctx, qr, plant.optString("extraInfo", ""), submittingOrg, gpsPosition, position, i);
+            result.succeeded(qr);
+        }
+        return result.toString();
     }
 
+    /**
+     * Moves many plants in a single transaction. Several updates of the same plant are applied in input order.
+     *
+     * @param updatesJson JSON array of {@code {"qr", "gpsPosition"}} objects
+     * @return JSON object with one result per input item, in input order
+     */
     @Transaction(intent = Transaction.TYPE.SUBMIT)
-    public String UpdateTracking(final Context ctx, final String qr, final String gpsPosition) {
-        ChaincodeStub stub = ctx.getStub();
+    public String UpdateTrackingBatch(final BasilContext ctx, final String updatesJson) {
+        JSONArray updates = parseBatch(ctx, updatesJson);
 
-        if (!checkIfExists(ctx, qr)) {
+        String submittingOrg = ctx.getClientMspId();
+
+        BatchResult result = new BatchResult(updates.length());
+        for (int i = 0; i < updates.length(); i++) {
+            JSONObject update = updates.optJSONObject(i);
+            String qr = update == null ? null : update.optString("qr", null);
+            if (qr == null || qr.isEmpty()) {
+                result.failed(qr, AssetTransferErrors.INVALID_ARGUMENT, String.format("Item %d has no qr", i));
+                continue;
+            }
+
+            String gpsPosition = update.optString("gpsPosition", "");
+            GeoPosition position = GeoPosition.parse(gpsPosition);
+            if (position == null) {
+                result.failed(qr, AssetTransferErrors.INVALID_ARGUMENT, invalidPositionMessage(gpsPosition));
+                continue;
+            }
+
+            Basil basil = ctx.getBasil(qr);
+            if (basil == null) {
+                result.failed(qr, AssetTransferErrors.BASIL_NOT_FOUND, String.format("Basil %s does not exist", qr));
+                continue;
+            }
+            if (!basil.getOwner().equals(submittingOrg)) {
+                result.failed(qr, AssetTransferErrors.NOT_THE_OWNER,
+                        "Action not allowed because doesnt correspond to the owner");
+                continue;
+            }
+
+            moveTracking(ctx, basil, gpsPosition, position, i);
+            result.succeeded(qr);
+        }
+        return result.toString();
+    }
+
+
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String GetActualTracking(final BasilContext ctx, final String qr) {
+        byte[] basil = ctx.getState(qr);
+
+        if (basil.length == 0) {
             String errorMessage = String.format("Basil %s does not exist", qr);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.BASIL_NOT_FOUND.toString());
+            throw error(ctx, AssetTransferErrors.BASIL_NOT_FOUND, errorMessage);
         }
 
-        String submittingOrg = ctx.getClientIdentity().getMSPID();
+        // positions recorded with UpdatePosition are newer than the leg of the basil record
+        byte[] basilLeg = ctx.getState(currentLegKey(ctx, qr, basil));
 
-        String basilJSON = stub.getStringState(qr);
-        Basil basil = genson.deserialize(basilJSON, Basil.class);
+        // {"Basil":{...},"BasilLeg":{...}}, both written from the stored bytes without decoding the records
+        JsonWriter response = JsonWriter.acquire().beginObject().name("Basil");
+        BasilCodec.writeJson(basil, response);
+        response.name("BasilLeg");
+        if (basilLeg.length == 0) {
+            response.nullValue();
+        } else {
+            BasilCodec.writeJson(basilLeg, response);
+        }
+        return response.endObject().toString();
+    }
 
-        stub.delState(basil.getBasilLeg());
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String GetHistory(final BasilContext ctx, final String qr) {
+        if (!checkIfExists(ctx, qr)) {
+            String errorMessage = String.format("Basil %s does not exist", qr);
+            throw error(ctx, AssetTransferErrors.BASIL_NOT_FOUND, errorMessage);
+        }
 
-        if (!basil.getOwner().equals(submittingOrg)) {
-            String errorMessage = "Action not allowed because doesnt correspond to the owner";
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.NOT_THE_OWNER.toString());
+        JsonWriter response = JsonWriter.acquire().beginArray();
+        try (QueryResultsIterator<KeyModification> historyForKey = ctx.getHistoryForKey(qr)) {
+            for (KeyModification keyModification : historyForKey) {
+                writeHistoryValue(response, keyModification);
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to read the history of " + qr, e);
         }
+        return response.endArray().toString();
+    }
 
+    /**
+     * Returns the history of a plant, newest first, one bounded page at a time.
+     * <p>
+     * The history iterator of the peer cannot seek, so a page is produced by skipping the modifications up to the
+     * bookmark and stopping after {@code pageSize} records or at the first one older than {@code fromTimestamp}.
+     * Only the current page is ever held in memory.
+     *
+     * @param fromTimestamp oldest transaction time to return, epoch seconds inclusive
+     * @param toTimestamp newest transaction time to return, epoch seconds inclusive, 0 for no upper bound
+     * @param bookmark empty for the first page, otherwise the bookmark returned with the previous page
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String GetHistoryPage(final BasilContext ctx, final String qr, final int pageSize, final String bookmark,
+                                 final long fromTimestamp, final long toTimestamp) {
+        checkPageSize(ctx, pageSize);
 
-        BasilLeg basilLeg = new BasilLeg(ctx.getStub().getTxTimestamp().getEpochSecond(),gpsPosition,basil.getQr());
+        HistoryBookmark resumeAfter = HistoryBookmark.parse(bookmark);
+        if (resumeAfter == null && bookmark != null && !bookmark.isEmpty()) {
+            String errorMessage = String.format("Invalid history bookmark %s", bookmark);
+            throw error(ctx, AssetTransferErrors.INVALID_ARGUMENT, errorMessage);
+        }
+        long newest = toTimestamp <= 0 ? Long.MAX_VALUE : toTimestamp;
 
-        basil.setBasilLeg(basilLeg.getId());
-        stub.putStringState(basil.getQr(),genson.serialize(basil));
+        JsonWriter response = JsonWriter.acquire().beginObject().name("records").beginArray();
+        int fetched = 0;
+        KeyModification last = null;
+        String nextBookmark = "";
+        try (QueryResultsIterator<KeyModification> historyForKey = ctx.getHistoryForKey(qr)) {
+            for (KeyModification keyModification : historyForKey) {
+                if (resumeAfter != null && resumeAfter.skip(keyModification)) {
+                    continue;
+                }
 
-        stub.putStringState(basilLeg.getId(), genson.serialize(basilLeg));
+                long timestamp = keyModification.getTimestamp().getEpochSecond();
+                if (timestamp > newest) {
+                    continue;
+                }
+                if (timestamp < fromTimestamp) {
+                    break;
+                }
+                if (fetched == pageSize) {
+                    // there is at least one more record in range, resume after the last one returned
+                    nextBookmark = HistoryBookmark.of(last);
+                    break;
+                }
 
-        return "Plant updated successfully";
+                response.beginObject()
+                        .name("txId").value(keyModification.getTxId())
+                        .name("timestamp").value(timestamp)
+                        .name("isDelete").value(keyModification.isDeleted())
+                        .name("value");
+                writeHistoryValue(response, keyModification);
+                response.endObject();
+                last = keyModification;
+                fetched++;
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to read the history of " + qr, e);
+        }
+
+        return response.endArray()
+                .name("fetchedRecordsCount").value(fetched)
+                .name("bookmark").value(nextBookmark)
+                .endObject()
+                .toString();
     }
 
+    /**
+     * Returns the legs of a plant with a timestamp between {@code from} and {@code to} (epoch seconds, inclusive),
+     * oldest first, one page at a time. Pass the returned bookmark to fetch the next page; an empty bookmark means
+     * the range is exhausted.
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String GetLegsInRange(final BasilContext ctx, final String qr, final long from, final long to,
+                                 final int pageSize, final String bookmark) {
+        ChaincodeStub stub = ctx.getStub();
+
+        checkPageSize(ctx, pageSize);
+
+        // on LevelDB and CouchDB the bookmark of a range query is the key to resume from,
+        // so the first page starts directly at the first leg not older than 'from'
+        String start = bookmark == null || bookmark.isEmpty()
+                ? stub.createCompositeKey(BASIL_LEG_TYPE, qr, paddedTimestamp(Math.max(from, 0))).toString()
+                : bookmark;
 
+        JsonWriter response = JsonWriter.acquire().beginObject().name("records").beginArray();
+        int fetched = 0;
+        String nextBookmark;
+        try (QueryResultsIteratorWithMetadata<KeyValue> legs = ctx.getStateByPartialCompositeKeyWithPagination(
+                stub.createCompositeKey(BASIL_LEG_TYPE, qr), pageSize, start)) {
+            nextBookmark = legs.getMetadata().getBookmark();
+            for (KeyValue leg : legs) {
+                long timestamp = Long.parseLong(stub.splitCompositeKey(leg.getKey()).getAttributes().get(1));
+                if (timestamp > to) {
+                    nextBookmark = "";
+                    break;
+                }
+                BasilCodec.writeJson(leg.getValue(), response);
+                fetched++;
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to query the legs of " + qr, e);
+        }
+
+        return response.endArray()
+                .name("fetchedRecordsCount").value(fetched)
+                .name("bookmark").value(nextBookmark)
+                .endObject()
+                .toString();
+    }
+
+    /**
+     * Plants of an owner, read through the {@code owner~qr} index.
+     *
+     * @param bookmark empty for the first page, otherwise the bookmark returned with the previous page
+     * @return {@code {"records":[basil...],"fetchedRecordsCount":n,"bookmark":"..."}}, the bookmark is empty
+     * after the last page
+     */
     @Transaction(intent = Transaction.TYPE.EVALUATE)
-    public String GetActualTracking(final Context ctx, final String qr) {
+    public String GetBasilsByOwner(final BasilContext ctx, final String owner, final int pageSize,
+                                   final String bookmark) {
         ChaincodeStub stub = ctx.getStub();
-        String basilJSON = stub.getStringState(qr);
+        checkPageSize(ctx, pageSize);
 
-        if (basilJSON== null || basilJSON.isEmpty()) {
-            String errorMessage = String.format("Basil %s does not exist", qr);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.BASIL_NOT_FOUND.toString());
+        JsonWriter response = JsonWriter.acquire().beginObject().name("records").beginArray();
+        int fetched = 0;
+        String nextBookmark;
+        try (QueryResultsIteratorWithMetadata<KeyValue> entries = ctx.getStateByPartialCompositeKeyWithPagination(
+                stub.createCompositeKey(OWNER_INDEX_TYPE, owner), pageSize, bookmark == null ? "" : bookmark)) {
+            nextBookmark = entries.getMetadata().getBookmark();
+            for (KeyValue entry : entries) {
+                String qr = stub.splitCompositeKey(entry.getKey()).getAttributes().get(1);
+                byte[] value = ctx.getState(qr);
+                if (value.length > 0) {
+                    BasilCodec.writeJson(value, response);
+                    fetched++;
+                }
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to query the plants of " + owner, e);
         }
 
-        Basil basil = genson.deserialize(basilJSON, Basil.class);
+        return response.endArray()
+                .name("fetchedRecordsCount").value(fetched)
+                .name("bookmark").value(nextBookmark)
+                .endObject()
+                .toString();
+    }
+
+    /**
+     * Same as {@link #GetBasilsByOwner} as a CouchDB rich query on the owner index, in one round trip instead of
+     * one read per plant. Only available on CouchDB peers, with the chaincode packaged with
+     * {@code stateFormat=json}, see {@link BasilCodec}.
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String QueryBasilsByOwner(final BasilContext ctx, final String owner, final int pageSize,
+                                     final String bookmark) {
+        checkPageSize(ctx, pageSize);
 
-        System.out.println(basil);
-        String basilLegJSON = stub.getStringState(basil.getBasilLeg());
-        BasilLeg basilLeg = genson.deserialize(basilLegJSON, BasilLeg.class);
+        String query = new JSONObject()
+                .put("selector", new JSONObject().put("owner", owner))
+                .put("use_index", new JSONArray().put(OWNER_INDEX_DDOC).put(OWNER_INDEX_NAME))
+                .toString();
 
-        Map<String, Object> response = new HashMap<>();
-        response.put("Basil", basil);
-        response.put("BasilLeg", basilLeg);
+        JsonWriter response = JsonWriter.acquire().beginObject().name("records").beginArray();
+        int fetched = 0;
+        String nextBookmark;
+        try (QueryResultsIteratorWithMetadata<KeyValue> results = ctx.getQueryResultWithPagination(
+                query, pageSize, bookmark == null ? "" : bookmark)) {
+            nextBookmark = results.getMetadata().getBookmark();
+            for (KeyValue result : results) {
+                BasilCodec.writeJson(result.getValue(), response);
+                fetched++;
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to query the plants of " + owner, e);
+        }
 
-        return response.toString();
+        return response.endArray()
+                .name("fetchedRecordsCount").value(fetched)
+                .name("bookmark").value(nextBookmark)
+                .endObject()
+                .toString();
     }
 
+    /**
+     * Plants whose current position lies inside the bounding box (decimal degrees, inclusive), read through the
+     * geohash index without touching the plants themselves.
+     * <p>
+     * The box is covered by at most {@value #MAX_COVERING_CELLS} geohash cells, which are scanned in key order.
+     * {@code pageSize} bounds the index entries scanned per page; entries of a cell that lie outside the box are
+     * skipped, so a page may hold fewer records. Boxes crossing the antimeridian have to be split by the caller.
+     *
+     * @param bookmark empty for the first page, otherwise the bookmark returned with the previous page
+     * @return {@code {"records":[{"qr","latitude","longitude"}...],"fetchedRecordsCount":n,"bookmark":"..."}},
+     * the bookmark is empty after the last page
+     */
     @Transaction(intent = Transaction.TYPE.EVALUATE)
-    public String GetHistory(final Context ctx, final String qr) {
+    public String GetBasilsInBoundingBox(final BasilContext ctx, final double minLatitude, final double minLongitude,
+                                         final double maxLatitude, final double maxLongitude, final int pageSize,
+                                         final String bookmark) {
         ChaincodeStub stub = ctx.getStub();
+        checkPageSize(ctx, pageSize);
 
-        String basilJSON = stub.getStringState(qr);
-        if (basilJSON == null || basilJSON.isEmpty()) {
-            String errorMessage = String.format("Basil %s does not exist", qr);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.BASIL_NOT_FOUND.toString());
+        if (!GeoPosition.isValid(minLatitude, minLongitude) || !GeoPosition.isValid(maxLatitude, maxLongitude)
+                || minLatitude > maxLatitude || minLongitude > maxLongitude) {
+            String errorMessage = String.format("Invalid bounding box %s,%s - %s,%s",
+                    minLatitude, minLongitude, maxLatitude, maxLongitude);
+            throw error(ctx, AssetTransferErrors.INVALID_ARGUMENT, errorMessage);
         }
 
-        List<String> result=new ArrayList<String>();
+        String resumeFrom = bookmark == null ? "" : bookmark;
+        JsonWriter response = JsonWriter.acquire().beginObject().name("records").beginArray();
+        int fetched = 0;
+        int scanned = 0;
+        String nextBookmark = "";
+        List<String> cells = new ArrayList<>(GeoHash.coveringCells(minLatitude, minLongitude, maxLatitude,
+                maxLongitude, GeoHash.PRECISION, MAX_COVERING_CELLS));
+        for (int i = 0; i < cells.size(); i++) {
+            // cells sort like their keys, so the bookmark is in the first cell not entirely before it
+            String cellKey = geoCellKey(ctx, cells.get(i)).toString();
+            String start = "";
+            if (!resumeFrom.isEmpty()) {
+                if (resumeFrom.startsWith(cellKey)) {
+                    start = resumeFrom;
+                } else if (cellKey.compareTo(resumeFrom) < 0) {
+                    continue;
+                }
+                resumeFrom = "";
+            }
+            if (scanned == pageSize) {
+                nextBookmark = cellKey;
+                break;
+            }
 
-        QueryResultsIterator<KeyModification> historyForKey = stub.getHistoryForKey(qr);
+            String cellBookmark;
+            try (QueryResultsIteratorWithMetadata<KeyValue> entries = ctx.getStateByPartialCompositeKeyWithPagination(
+                    geoCellKey(ctx, cells.get(i)), pageSize - scanned, start)) {
+                cellBookmark = entries.getMetadata().getBookmark();
+                for (KeyValue entry : entries) {
+                    scanned++;
+                    GeoPosition position = GeoPosition.fromBytes(entry.getValue());
+                    if (!position.isInside(minLatitude, minLongitude, maxLatitude, maxLongitude)) {
+                        continue;
+                    }
+                    List<String> attributes = stub.splitCompositeKey(entry.getKey()).getAttributes();
+                    response.beginObject()
+                            .name("qr").value(attributes.get(attributes.size() - 1))
+                            .name("latitude").value(position.getLatitude())
+                            .name("longitude").value(position.getLongitude())
+                            .endObject();
+                    fetched++;
+                }
+            } catch (Exception e) {
+                throw error(ctx, "Failed to query the geohash cell " + cells.get(i), e);
+            }
+            if (cellBookmark != null && !cellBookmark.isEmpty()) {
+                nextBookmark = cellBookmark;
+                break;
+            }
+        }
 
+        return response.endArray()
+                .name("fetchedRecordsCount").value(fetched)
+                .name("bookmark").value(nextBookmark)
+                .endObject()
+                .toString();
+    }
 
-        for (KeyModification keyModification : historyForKey) {
-            String transaction = keyModification.getStringValue();
+    /**
+     * Exports the tracked plants with their current leg, one bounded page at a time, for offline analytics.
+     * <p>
+     * The legs and indexes are composite keys, which a range query over simple keys never returns. The simple keys
+     * are the basil records, and on ledgers that predate the composite leg keys the legs stored as
+     * {@code "BasilLeg: <timestamp>"}, which are skipped; a page may hold fewer records than {@code pageSize}. The
+     * bookmark is the key to resume from.
+     *
+     * @return {@code {"records":[{"basil","basilLeg"}],"fetchedRecordsCount","bookmark"}}
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String ExportTracking(final BasilContext ctx, final int pageSize, final String bookmark) {
+        checkPageSize(ctx, pageSize);
 
-            result.add(transaction);
+        JsonWriter response = JsonWriter.acquire().beginObject().name("records").beginArray();
+        int fetched = 0;
+        String nextBookmark;
+        try (QueryResultsIteratorWithMetadata<KeyValue> basils = ctx.getStateByRangeWithPagination(
+                "", "", pageSize, bookmark == null ? "" : bookmark)) {
+            nextBookmark = basils.getMetadata().getBookmark();
+            for (KeyValue basil : basils) {
+                if (!BasilCodec.isBasil(basil.getValue())) {
+                    continue;
+                }
+                String legKey = currentLegKey(ctx, basil.getKey(), basil.getValue());
+                byte[] basilLeg = legKey == null ? new byte[0] : ctx.getState(legKey);
+                response.beginObject().name("basil");
+                BasilCodec.writeJson(basil.getValue(), response);
+                response.name("basilLeg");
+                if (basilLeg.length == 0) {
+                    response.nullValue();
+                } else {
+                    BasilCodec.writeJson(basilLeg, response);
+                }
+                response.endObject();
+                fetched++;
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to export the plants", e);
         }
-        return result.toString();
 
+        return response.endArray()
+                .name("fetchedRecordsCount").value(fetched)
+                .name("bookmark").value(nextBookmark)
+                .endObject().toString();
     }
 
+    /**
+     * Returns the number of tracked plants, in total and by owner.
+     * <p>
+     * The counters are summed from the statistics keys in one range scan, O(shards x owners) once compacted plus the
+     * deltas written since. Plants created before the counters existed are not counted.
+     *
+     * @return {@code {"plants","owners":{owner:count},"counterKeys"}}
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String GetStatistics(final BasilContext ctx) {
+        Map<String, Long> owners = new TreeMap<>();
+        long counterKeys = 0;
+        String bookmark = "";
+        try {
+            do {
+                try (QueryResultsIteratorWithMetadata<KeyValue> counters = ctx.getStateByPartialCompositeKeyWithPagination(
+                        ctx.getStub().createCompositeKey(STATISTICS_TYPE), MAX_PAGE_SIZE, bookmark)) {
+                    for (KeyValue counter : counters) {
+                        String owner = ctx.getStub().splitCompositeKey(counter.getKey()).getAttributes().get(2);
+                        owners.merge(owner, Long.parseLong(counter.getStringValue()), Long::sum);
+                        counterKeys++;
+                    }
+                    bookmark = counters.getMetadata().getBookmark();
+                }
+            } while (bookmark != null && !bookmark.isEmpty());
+        } catch (Exception e) {
+            throw error(ctx, "Failed to read the statistics", e);
+        }
 
+        long plants = 0;
+        JsonWriter response = JsonWriter.acquire().beginObject().name("owners").beginObject();
+        for (Map.Entry<String, Long> owner : owners.entrySet()) {
+            if (owner.getValue() != 0) {
+                response.name(owner.getKey()).value(owner.getValue());
+                plants += owner.getValue();
+            }
+        }
+        return response.endObject()
+                .name("plants").value(plants)
+                .name("counterKeys").value(counterKeys)
+                .endObject().toString();
+    }
+
+    /**
+     * Folds the counter deltas of a shard into one entry per owner, keeping {@code GetStatistics} O(shards).
+     * <p>
+     * Maintenance transaction, e.g. run every few minutes for each shard. It only reads the deltas of minutes that
+     * ended at least a minute before its own timestamp, one minute at a time, so the deltas written meanwhile land
+     * outside of its range queries and cannot fail it with a phantom read conflict; only a delta whose transaction
+     * timestamp lags by more than a minute can, and the compaction can simply be run again. At most
+     * {@value #MAX_COMPACTED_MINUTES} minutes are folded per call, starting where the previous one stopped, so a
+     * shard that was not compacted for a while takes several calls to catch up. The first call of a shard starts
+     * {@value #MAX_COMPACTED_MINUTES} minutes back: older deltas, and the ones whose timestamp lags behind an
+     * already compacted minute, are still counted by {@code GetStatistics} but never folded.
+     *
+     * @return {@code {"removed","compactedUntil"}}, the number of counter keys removed and the first minute, in
+     * seconds since the epoch, that is not compacted yet
+     */
     @Transaction(intent = Transaction.TYPE.SUBMIT)
-    public String TransferTracking(final Context ctx, final String qr, String newOwner) {
+    public String CompactStatistics(final BasilContext ctx, final int shard) {
+        if (shard < 0 || shard >= STATISTICS_SHARDS) {
+            String errorMessage = String.format("Shard must be between 0 and %d", STATISTICS_SHARDS - 1);
+            throw error(ctx, AssetTransferErrors.INVALID_ARGUMENT, errorMessage);
+        }
+        ChaincodeStub stub = ctx.getStub();
+        String shardKey = statisticsShard(shard);
+
+        // the minute of the transaction and the one before may still receive deltas
+        long lastMinute = stub.getTxTimestamp().getEpochSecond() / 60 - 2;
+        String compactedKey = stub.createCompositeKey(STATISTICS_COMPACTED_TYPE, shardKey).toString();
+        byte[] compacted = ctx.getState(compactedKey);
+        long fromMinute = compacted == null || compacted.length == 0
+                ? lastMinute - MAX_COMPACTED_MINUTES + 1
+                : Long.parseLong(new String(compacted, StandardCharsets.UTF_8));
+        long toMinute = Math.min(lastMinute, fromMinute + MAX_COMPACTED_MINUTES - 1);
+
+        Map<String, Long> owners = new TreeMap<>();
+        int removed = 0;
+        try {
+            try (QueryResultsIterator<KeyValue> bases = ctx.getStateByPartialCompositeKey(
+                    stub.createCompositeKey(STATISTICS_TYPE, shardKey, STATISTICS_BASE))) {
+                for (KeyValue base : bases) {
+                    String owner = stub.splitCompositeKey(base.getKey()).getAttributes().get(2);
+                    owners.put(owner, Long.parseLong(base.getStringValue()));
+                }
+            }
+            int bases = owners.size();
+            for (long minute = fromMinute; minute <= toMinute; minute++) {
+                try (QueryResultsIterator<KeyValue> deltas = ctx.getStateByPartialCompositeKey(
+                        stub.createCompositeKey(STATISTICS_TYPE, shardKey, paddedTimestamp(minute)))) {
+                    for (KeyValue delta : deltas) {
+                        String owner = stub.splitCompositeKey(delta.getKey()).getAttributes().get(2);
+                        owners.merge(owner, Long.parseLong(delta.getStringValue()), Long::sum);
+                        ctx.delState(delta.getKey());
+                        removed++;
+                    }
+                }
+            }
+            if (removed > 0) {
+                removed += bases;
+                for (Map.Entry<String, Long> owner : owners.entrySet()) {
+                    String baseKey = stub.createCompositeKey(STATISTICS_TYPE, shardKey, STATISTICS_BASE,
+                            owner.getKey()).toString();
+                    if (owner.getValue() != 0) {
+                        ctx.putState(baseKey, Long.toString(owner.getValue()).getBytes(StandardCharsets.UTF_8));
+                        removed--;
+                    } else {
+                        ctx.delState(baseKey);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to read the statistics of shard " + shard, e);
+        }
+
+        long compactedUntil = Math.max(fromMinute, toMinute + 1);
+        ctx.putState(compactedKey, Long.toString(compactedUntil).getBytes(StandardCharsets.UTF_8));
+        return JsonWriter.acquire().beginObject()
+                .name("removed").value(removed)
+                .name("compactedUntil").value(compactedUntil * 60)
+                .endObject().toString();
+    }
+
+    /**
+     * Transaction metrics of the chaincode container of the peer that evaluates this, since it started.
+     *
+     * @return {@code {"latencyBucketsMicros":[...],"functions":{"<name>":{"calls","totalMicros","maxMicros",
+     * "latencyHistogram","shimCalls","bytesRead","bytesWritten","errors":{"<code>":n}}}}}
+     */
+    @Transaction(intent = Transaction.TYPE.EVALUATE)
+    public String GetMetrics(final BasilContext ctx) {
+        JsonWriter response = JsonWriter.acquire();
+        metrics.writeJson(response);
+        return response.toString();
+    }
+
+    @OwnerOnly
+    @Transaction(intent = Transaction.TYPE.SUBMIT)
+    public String TransferTracking(final BasilContext ctx, final String qr, String newOwner) {
         ChaincodeStub stub = ctx.getStub();
         if (!checkIfExists(ctx, qr)) {
             String errorMessage = String.format("Basil %s does not exist", qr);
-            System.out.println(errorMessage);
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.BASIL_NOT_FOUND.toString());
+            throw error(ctx, AssetTransferErrors.BASIL_NOT_FOUND, errorMessage);
+        }
+
+        Basil basil = ctx.getBasil(qr);
+
+        if (!newOwner.equals(basil.getOwner())) {
+            ctx.delState(ownerIndexKey(ctx, basil.getOwner(), qr));
+            ctx.putState(ownerIndexKey(ctx, newOwner, qr), INDEX_VALUE);
+            ctx.addOwnerDelta(basil.getOwner(), -1);
+            ctx.addOwnerDelta(newOwner, 1);
         }
+        basil.setOwner(newOwner);
+
+        ctx.putBasil(basil);
+        ctx.addTrackingEvent("TRANSFER", basil, null);
+
+        return "Plant changed the owner";
+    }
+
 
-        String submittingOrg = ctx.getClientIdentity().getMSPID();
+    private Basil putTracking(final BasilContext ctx, final String qr, final String extraInfo, final String owner,
+                              final String gpsPosition, final GeoPosition position, final int sequence) {
+        BasilLeg basilLeg = putLeg(ctx, qr, gpsPosition, sequence);
 
-        String basilJSON = stub.getStringState(qr);
-        Basil basil = genson.deserialize(basilJSON, Basil.class);
+        Basil basil = new Basil(qr, extraInfo, owner, basilLeg.getId());
+        ctx.putBasil(basil);
+        ctx.putTrackSummary(trackSummaryKey(ctx, qr), TrackSummary.start(qr, basilLeg));
+        ctx.putState(ownerIndexKey(ctx, owner, qr), INDEX_VALUE);
+        ctx.putState(geoIndexKey(ctx, position, qr), position.toBytes());
+        ctx.addOwnerDelta(owner, 1);
+        ctx.addTrackingEvent("CREATE", basil, basilLeg);
+        return basil;
+    }
+
+    private void moveTracking(final BasilContext ctx, final Basil basil, final String gpsPosition,
+                              final GeoPosition position, final int sequence) {
+        deleteGeoIndex(ctx, basil);
+        // the summary is left as it is, the legs after it are added when it is read: updating it here would skip the
+        // legs of UpdatePosition written since, which this transaction does not see
+        BasilLeg basilLeg = putLeg(ctx, basil.getQr(), gpsPosition, sequence);
 
+        basil.setBasilLeg(basilLeg.getId());
+        ctx.putBasil(basil);
+        ctx.putState(geoIndexKey(ctx, position, basil.getQr()), position.toBytes());
+        ctx.addTrackingEvent("UPDATE", basil, basilLeg);
+    }
 
-        if (!basil.getOwner().equals(submittingOrg)) {
-            String errorMessage = "Action not allowed because doesnt correspond to the owner";
-            throw new ChaincodeException(errorMessage, AssetTransferErrors.NOT_THE_OWNER.toString());
+    /**
+     * @return the route summary of a plant up to its newest leg: the stored summary extended with the legs after it,
+     * or summed up from its route if it has none; null if it has no route
+     */
+    private TrackSummary getTrackSummary(final BasilContext ctx, final String qr, final boolean inUpdate) {
+        TrackSummary summary = ctx.getTrackSummary(trackSummaryKey(ctx, qr));
+        if (summary == null) {
+            return summarizeRoute(ctx, qr, inUpdate);
         }
+        return addLegs(ctx, qr, summary, legsAfter(ctx, summary), inUpdate);
+    }
 
-        basil.setOwner(newOwner);
+    /**
+     * Sums up the route of a plant tracked before the summaries existed: the legs that predate the composite leg
+     * keys, only known from the history of the basil record since the plant was last created, followed by the legs
+     * written since it was created. Without a history, e.g. on a peer with the history database disabled, the route
+     * starts at the current leg of the basil record.
+     */
+    private TrackSummary summarizeRoute(final BasilContext ctx, final String qr, final boolean inUpdate) {
+        ChaincodeStub stub = ctx.getStub();
 
-        stub.putStringState(qr, genson.serialize(basil));
+        // newest first: skip a stop, if the plant is stopped, and end at the one before
+        Deque<KeyModification> versions = new ArrayDeque<>();
+        try (QueryResultsIterator<KeyModification> history = ctx.getHistoryForKey(qr)) {
+            for (KeyModification version : history) {
+                if (version.isDeleted()) {
+                    if (versions.isEmpty()) {
+                        continue;
+                    }
+                    break;
+                }
+                versions.addFirst(version);
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to read the history of " + qr, e);
+        }
 
-        return "Plant changed the owner";
+        if (versions.isEmpty()) {
+            Basil basil = ctx.getBasil(qr);
+            String legKey = basil == null ? null : basil.getBasilLeg();
+            BasilLeg current = legKey == null ? null : ctx.getBasilLeg(legKey);
+            if (current == null) {
+                return null;
+            }
+            TrackSummary summary = TrackSummary.start(qr, current);
+            return addLegs(ctx, qr, summary, legsAfter(ctx, summary), inUpdate);
+        }
+
+        TrackSummary summary = null;
+        String legacyLeg = null;
+        for (KeyModification version : versions) {
+            String legKey = BasilCodec.readBasilLeg(version.getValue());
+            if (legKey != null && !legKey.equals(legacyLeg) && !legKey.startsWith(CompositeKey.NAMESPACE)) {
+                // transfers keep the leg, it is only added once
+                legacyLeg = legKey;
+                BasilLeg basilLeg = ctx.getBasilLeg(legKey);
+                if (basilLeg != null) {
+                    summary = addLeg(summary, qr, basilLeg);
+                }
+            }
+        }
+        String start = summary != null ? legsAfter(ctx, summary) : stub.createCompositeKey(BASIL_LEG_TYPE, qr,
+                paddedTimestamp(versions.getFirst().getTimestamp().getEpochSecond())).toString();
+        return addLegs(ctx, qr, summary, start, inUpdate);
     }
 
+    /**
+     * @return the key to read the legs after the last leg of the summary from; legs that predate the composite leg
+     * keys are followed by the ones written since their timestamp
+     */
+    private static String legsAfter(final BasilContext ctx, final TrackSummary summary) {
+        String lastLegKey = summary.getLastLegKey();
+        if (lastLegKey != null && lastLegKey.startsWith(CompositeKey.NAMESPACE)) {
+            return lastLegKey;
+        }
+        return ctx.getStub().createCompositeKey(BASIL_LEG_TYPE, summary.getQr(),
+                paddedTimestamp(summary.getLastTimestamp())).toString();
+    }
 
-    private boolean checkIfExists(final Context ctx, final String id) {
+    /**
+     * Extends the summary with the legs of the plant from the start key on, in key order, which is the order of
+     * their timestamps, leaving out the last leg of the summary. Read-only transactions read them a page at a time
+     * from the start key; updates cannot, the peer does not allow paginated queries in updates, and skip the legs
+     * before it.
+     */
+    private TrackSummary addLegs(final BasilContext ctx, final String qr, final TrackSummary summary,
+                                 final String start, final boolean inUpdate) {
         ChaincodeStub stub = ctx.getStub();
-        String assetJSON = stub.getStringState(id);
+        String lastLegKey = summary == null ? null : summary.getLastLegKey();
+        TrackSummary result = summary;
+        try {
+            if (inUpdate) {
+                try (QueryResultsIterator<KeyValue> legs = ctx.getStateByPartialCompositeKey(
+                        stub.createCompositeKey(BASIL_LEG_TYPE, qr))) {
+                    for (KeyValue leg : legs) {
+                        if (leg.getKey().compareTo(start) >= 0 && !leg.getKey().equals(lastLegKey)) {
+                            result = addLeg(result, qr, BasilCodec.decodeBasilLeg(leg.getValue()));
+                        }
+                    }
+                }
+                return result;
+            }
+            String bookmark = start;
+            do {
+                try (QueryResultsIteratorWithMetadata<KeyValue> legs = ctx.getStateByPartialCompositeKeyWithPagination(
+                        stub.createCompositeKey(BASIL_LEG_TYPE, qr), MAX_PAGE_SIZE, bookmark)) {
+                    for (KeyValue leg : legs) {
+                        if (!leg.getKey().equals(lastLegKey)) {
+                            result = addLeg(result, qr, BasilCodec.decodeBasilLeg(leg.getValue()));
+                        }
+                    }
+                    bookmark = legs.getMetadata().getBookmark();
+                }
+            } while (bookmark != null && !bookmark.isEmpty());
+        } catch (Exception e) {
+            throw error(ctx, "Failed to read the legs of " + qr, e);
+        }
+        return result;
+    }
+
+    private static TrackSummary addLeg(final TrackSummary summary, final String qr, final BasilLeg basilLeg) {
+        if (summary == null) {
+            return TrackSummary.start(qr, basilLeg);
+        }
+        summary.addLeg(basilLeg);
+        return summary;
+    }
+
+    private static String trackSummaryKey(final BasilContext ctx, final String qr) {
+        return ctx.getStub().createCompositeKey(TRACK_SUMMARY_TYPE, qr).toString();
+    }
+
+    /**
+     * Removes the index entry of the current position of a plant. Plants whose current leg predates the index or
+     * has no valid position have none.
+     */
+    private void deleteGeoIndex(final BasilContext ctx, final Basil basil) {
+        BasilLeg current = basil.getBasilLeg() == null ? null : ctx.getBasilLeg(basil.getBasilLeg());
+        GeoPosition position = current == null ? null : GeoPosition.parse(current.getGpsPosition());
+        if (position != null) {
+            ctx.delState(geoIndexKey(ctx, position, basil.getQr()));
+        }
+    }
+
+    private static String geoIndexKey(final BasilContext ctx, final GeoPosition position, final String qr) {
+        String geoHash = GeoHash.encode(position.getLatitude(), position.getLongitude(), GeoHash.PRECISION);
+        String[] attributes = new String[geoHash.length() + 1];
+        for (int i = 0; i < geoHash.length(); i++) {
+            attributes[i] = String.valueOf(geoHash.charAt(i));
+        }
+        attributes[geoHash.length()] = qr;
+        return ctx.getStub().createCompositeKey(GEO_INDEX_TYPE, attributes).toString();
+    }
+
+    private static CompositeKey geoCellKey(final BasilContext ctx, final String cell) {
+        String[] attributes = new String[cell.length()];
+        for (int i = 0; i < cell.length(); i++) {
+            attributes[i] = String.valueOf(cell.charAt(i));
+        }
+        return ctx.getStub().createCompositeKey(GEO_INDEX_TYPE, attributes);
+    }
+
+    private GeoPosition parsePosition(final BasilContext ctx, final String gpsPosition) {
+        GeoPosition position = GeoPosition.parse(gpsPosition);
+        if (position == null) {
+            throw error(ctx, AssetTransferErrors.INVALID_ARGUMENT, invalidPositionMessage(gpsPosition));
+        }
+        return position;
+    }
+
+    private static String invalidPositionMessage(final String gpsPosition) {
+        return String.format("Invalid gps position %s, expected \"latitude,longitude\" in decimal degrees",
+                gpsPosition);
+    }
+
+    /**
+     * Appends a leg to the route of a plant. Legs are never overwritten: the key carries the transaction id, and
+     * the sequence tells apart several legs of the same plant written by one batch transaction.
+     */
+    private BasilLeg putLeg(final BasilContext ctx, final String qr, final String gpsPosition, final int sequence) {
+        ChaincodeStub stub = ctx.getStub();
+        long timestamp = stub.getTxTimestamp().getEpochSecond();
+        String txId = sequence == 0 ? stub.getTxId() : stub.getTxId() + "." + sequence;
+        String legKey = stub.createCompositeKey(BASIL_LEG_TYPE, qr, paddedTimestamp(timestamp), txId).toString();
+
+        BasilLeg basilLeg = new BasilLeg(legKey, timestamp, gpsPosition, qr);
+        ctx.putBasilLeg(basilLeg);
+
+        Instant time = stub.getTxTimestamp();
+        long nanos = time.getEpochSecond() * 1_000_000_000L + time.getNano();
+        ctx.putState(stub.createCompositeKey(NEWEST_LEG_INDEX_TYPE, qr, paddedTimestamp(Long.MAX_VALUE - nanos), txId)
+                .toString(), legKey.getBytes(StandardCharsets.UTF_8));
+        return basilLeg;
+    }
+
+    /**
+     * Returns the key of the most recent leg of a plant: the first entry of the newest-leg index, or the leg of the
+     * basil record for plants whose legs predate the index. Only for read-only transactions, the peer does not allow
+     * paginated queries in updates.
+     */
+    private String currentLegKey(final BasilContext ctx, final String qr, final byte[] basil) {
+        try (QueryResultsIteratorWithMetadata<KeyValue> newest = ctx.getStateByPartialCompositeKeyWithPagination(
+                ctx.getStub().createCompositeKey(NEWEST_LEG_INDEX_TYPE, qr), 1, "")) {
+            Iterator<KeyValue> first = newest.iterator();
+            if (first.hasNext()) {
+                return new String(first.next().getValue(), StandardCharsets.UTF_8);
+            }
+        } catch (Exception e) {
+            throw error(ctx, "Failed to find the current leg of " + qr, e);
+        }
+        return BasilCodec.readBasilLeg(basil);
+    }
+
+    /**
+     * Writes the plant count changes of the transaction, one blind write per owner under a key of its own, in the
+     * minute of the transaction timestamp.
+     */
+    private static void putStatisticsDeltas(final BasilContext ctx) {
+        Map<String, Long> deltas = ctx.getOwnerDeltas();
+        if (deltas.isEmpty()) {
+            return;
+        }
+        ChaincodeStub stub = ctx.getStub();
+        String txId = stub.getTxId();
+        String shard = statisticsShard((txId.hashCode() & Integer.MAX_VALUE) % STATISTICS_SHARDS);
+        String minute = paddedTimestamp(stub.getTxTimestamp().getEpochSecond() / 60);
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            if (delta.getValue() != 0) {
+                ctx.putState(stub.createCompositeKey(STATISTICS_TYPE, shard, minute, delta.getKey(), txId).toString(),
+                        Long.toString(delta.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        deltas.clear();
+    }
+
+    private static String statisticsShard(final int shard) {
+        return String.format("%02d", shard);
+    }
+
+    private static String ownerIndexKey(final BasilContext ctx, final String owner, final String qr) {
+        return ctx.getStub().createCompositeKey(OWNER_INDEX_TYPE, owner, qr).toString();
+    }
+
+    private static void writeHistoryValue(final JsonWriter response, final KeyModification keyModification) {
+        byte[] value = keyModification.getValue();
+        if (keyModification.isDeleted() || value == null || value.length == 0) {
+            response.nullValue();
+        } else {
+            BasilCodec.writeJson(value, response);
+        }
+    }
+
+    private void checkPageSize(final BasilContext ctx, final int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            String errorMessage = String.format("Page size must be between 1 and %d", MAX_PAGE_SIZE);
+            throw error(ctx, AssetTransferErrors.INVALID_ARGUMENT, errorMessage);
+        }
+    }
+
+    private static String paddedTimestamp(final long epochSecond) {
+        return String.format("%019d", epochSecond);
+    }
+
+    private JSONArray parseBatch(final BasilContext ctx, final String json) {
+        JSONArray items;
+        try {
+            items = new JSONArray(json);
+        } catch (JSONException e) {
+            String errorMessage = "Batch must be a JSON array: " + e.getMessage();
+            throw error(ctx, AssetTransferErrors.INVALID_ARGUMENT, errorMessage);
+        }
+        if (items.length() > MAX_BATCH_SIZE) {
+            String errorMessage = String.format("Batch of %d items exceeds the limit of %d", items.length(), MAX_BATCH_SIZE);
+            throw error(ctx, AssetTransferErrors.INVALID_ARGUMENT, errorMessage);
+        }
+        return items;
+    }
+
+    /**
+     * Position in the newest-first history of a key: the transaction time in milliseconds and the transaction id of
+     * the last record returned.
+     */
+    private static final class HistoryBookmark {
+
+        private final long timestampMillis;
+        private final String txId;
+        private boolean reached;
+
+        private HistoryBookmark(final long timestampMillis, final String txId) {
+            this.timestampMillis = timestampMillis;
+            this.txId = txId;
+        }
+
+        static String of(final KeyModification keyModification) {
+            return keyModification.getTimestamp().toEpochMilli() + ":" + keyModification.getTxId();
+        }
+
+        /**
+         * @return the bookmark, or null if it is empty or malformed
+         */
+        static HistoryBookmark parse(final String bookmark) {
+            if (bookmark == null) {
+                return null;
+            }
+            int separator = bookmark.indexOf(':');
+            if (separator < 1 || separator == bookmark.length() - 1) {
+                return null;
+            }
+            try {
+                return new HistoryBookmark(Long.parseLong(bookmark.substring(0, separator)),
+                        bookmark.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return true while the records are not older than the bookmarked one, including that record itself
+         */
+        boolean skip(final KeyModification keyModification) {
+            long timestamp = keyModification.getTimestamp().toEpochMilli();
+            if (timestamp > timestampMillis) {
+                return true;
+            }
+            if (timestamp < timestampMillis || reached) {
+                return false;
+            }
+            reached = txId.equals(keyModification.getTxId());
+            return true;
+        }
+    }
+
+    /**
+     * Per-item outcome of a batch transaction.
+     */
+    private static final class BatchResult {
+
+        private final JSONArray results;
+        private int succeeded;
+        private int failed;
+
+        BatchResult(final int size) {
+            this.results = new JSONArray(size);
+        }
+
+        void succeeded(final String qr) {
+            results.put(new JSONObject().put("qr", qr).put("status", "OK"));
+            succeeded++;
+        }
+
+        void failed(final String qr, final AssetTransferErrors error, final String message) {
+            results.put(new JSONObject()
+                    .put("qr", qr == null ? JSONObject.NULL : qr)
+                    .put("status", error.toString())
+                    .put("message", message));
+            failed++;
+        }
+
+        @Override
+        public String toString() {
+            return new JSONObject()
+                    .put("succeeded", succeeded)
+                    .put("failed", failed)
+                    .put("results", results)
+                    .toString();
+        }
+    }
+
+    /**
+     * Records the failed transaction and returns the exception to throw. The message starts with the code: the
+     * Gateway passes the message on to clients, but not the payload.
+     */
+    private ChaincodeException error(final BasilContext ctx, final AssetTransferErrors code, final String message) {
+        metrics.record(ctx, code.toString());
+        return new ChaincodeException(code + ": " + message, code.toString());
+    }
+
+    private ChaincodeException error(final BasilContext ctx, final String message, final Throwable cause) {
+        metrics.record(ctx, cause.getClass().getSimpleName());
+        return new ChaincodeException(message, cause);
+    }
 
-        return (assetJSON != null && !assetJSON.isEmpty());
+    private boolean checkIfExists(final BasilContext ctx, final String id) {
+        return ctx.exists(id);
     }
 
 }
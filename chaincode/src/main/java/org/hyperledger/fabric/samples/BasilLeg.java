@@ -5,7 +5,6 @@ import org.hyperledger.fabric.contract.annotation.DataType;
 import org.hyperledger.fabric.contract.annotation.Property;
 
 import java.util.Objects;
-import java.util.UUID;
 
 @DataType()
 public class BasilLeg {
@@ -47,9 +46,9 @@ public class BasilLeg {
         this.gpsPosition = gpsPosition;
     }
 
-    public BasilLeg(@JsonProperty("timestamp") final long timestamp, @JsonProperty("gpsPosition") final String gpsPosition,
-                    @JsonProperty("basil") final String basil) {
-        this.id = "BasilLeg: " + timestamp;
+    public BasilLeg(@JsonProperty("id") final String id, @JsonProperty("timestamp") final long timestamp,
+                    @JsonProperty("gpsPosition") final String gpsPosition, @JsonProperty("basil") final String basil) {
+        this.id = id;
         this.timestamp = timestamp;
         this.gpsPosition = gpsPosition;
         this.basil = basil;
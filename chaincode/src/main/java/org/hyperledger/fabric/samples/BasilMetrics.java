@@ -0,0 +1,141 @@
+package org.hyperledger.fabric.samples;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-function transaction metrics of one chaincode container: latency histogram, shim calls, bytes read and
+ * written, and errors by code.
+ * <p>
+ * Recording is a handful of lock-free counter increments, cheap enough for the endorsement path. Transactions run
+ * concurrently on the chaincode's thread pool, hence the concurrent counters. Every
+ * {@code BASIL_DEBUG_SAMPLE_RATE}th transaction is also logged at {@link Level#FINE} (0, the default, disables it).
+ */
+final class BasilMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(BasilMetrics.class.getName());
+
+    /**
+     * Upper bounds of the latency buckets in microseconds; one more bucket counts everything slower.
+     */
+    static final long[] LATENCY_BUCKETS_MICROS = {
+            50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 1_000_000};
+
+    private final ConcurrentMap<String, FunctionMetrics> functions = new ConcurrentHashMap<>();
+    private final AtomicLong transactions = new AtomicLong();
+    private final long debugSampleRate;
+
+    BasilMetrics(final long debugSampleRate) {
+        this.debugSampleRate = debugSampleRate;
+    }
+
+    static BasilMetrics fromEnvironment() {
+        String rate = System.getenv("BASIL_DEBUG_SAMPLE_RATE");
+        try {
+            return new BasilMetrics(rate == null ? 0 : Math.max(0, Long.parseLong(rate.trim())));
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Ignoring invalid BASIL_DEBUG_SAMPLE_RATE " + rate);
+            return new BasilMetrics(0);
+        }
+    }
+
+    /**
+     * Records a finished transaction once; later calls for the same context are ignored.
+     *
+     * @param errorCode null if the transaction succeeded
+     */
+    void record(final BasilContext ctx, final String errorCode) {
+        if (!ctx.markRecorded()) {
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - ctx.getStartNanos();
+        String function = ctx.getFunctionName();
+        functions.computeIfAbsent(function, f -> new FunctionMetrics())
+                .record(elapsedNanos, ctx.getShimCalls(), ctx.getBytesRead(), ctx.getBytesWritten(), errorCode);
+
+        long sequence = transactions.incrementAndGet();
+        if (debugSampleRate > 0 && sequence % debugSampleRate == 0 && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(String.format("%s tx=%s %dus shimCalls=%d read=%dB written=%dB%s", function,
+                    ctx.getStub().getTxId(), TimeUnit.NANOSECONDS.toMicros(elapsedNanos), ctx.getShimCalls(),
+                    ctx.getBytesRead(), ctx.getBytesWritten(), errorCode == null ? "" : " error=" + errorCode));
+        }
+    }
+
+    /**
+     * Writes a snapshot of all functions seen so far, latencies in microseconds.
+     */
+    void writeJson(final JsonWriter out) {
+        out.beginObject().name("latencyBucketsMicros").beginArray();
+        for (long bound : LATENCY_BUCKETS_MICROS) {
+            out.value(bound);
+        }
+        out.endArray().name("functions").beginObject();
+        for (Map.Entry<String, FunctionMetrics> function : functions.entrySet()) {
+            out.name(function.getKey());
+            function.getValue().writeJson(out);
+        }
+        out.endObject().endObject();
+    }
+
+    private static final class FunctionMetrics {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(LATENCY_BUCKETS_MICROS.length + 1);
+        private final LongAdder shimCalls = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        void record(final long elapsedNanos, final long shimCallCount, final long read, final long written,
+                    final String errorCode) {
+            calls.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+            buckets.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(elapsedNanos)));
+            shimCalls.add(shimCallCount);
+            bytesRead.add(read);
+            bytesWritten.add(written);
+            if (errorCode != null) {
+                errors.computeIfAbsent(errorCode, c -> new LongAdder()).increment();
+            }
+        }
+
+        void writeJson(final JsonWriter out) {
+            out.beginObject()
+                    .name("calls").value(calls.sum())
+                    .name("totalMicros").value(TimeUnit.NANOSECONDS.toMicros(totalNanos.sum()))
+                    .name("maxMicros").value(TimeUnit.NANOSECONDS.toMicros(maxNanos.get()))
+                    .name("latencyHistogram").beginArray();
+            for (int i = 0; i < buckets.length(); i++) {
+                out.value(buckets.get(i));
+            }
+            out.endArray()
+                    .name("shimCalls").value(shimCalls.sum())
+                    .name("bytesRead").value(bytesRead.sum())
+                    .name("bytesWritten").value(bytesWritten.sum())
+                    .name("errors").beginObject();
+            for (Map.Entry<String, LongAdder> error : errors.entrySet()) {
+                out.name(error.getKey()).value(error.getValue().sum());
+            }
+            out.endObject().endObject();
+        }
+
+        private static int bucket(final long micros) {
+            for (int i = 0; i < LATENCY_BUCKETS_MICROS.length; i++) {
+                if (micros <= LATENCY_BUCKETS_MICROS[i]) {
+                    return i;
+                }
+            }
+            return LATENCY_BUCKETS_MICROS.length;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.hyperledger.fabric.samples;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Geohash encoding and the cells covering a bounding box.
+ * <p>
+ * A geohash interleaves longitude and latitude bits, longitude first, five bits per base32 character. Positions
+ * sharing a prefix lie in the same cell, so one composite key attribute per character turns "all plants in this
+ * cell" into a partial composite key query. The base32 alphabet is in ASCII order, so cells sort like their keys.
+ */
+final class GeoHash {
+
+    /**
+     * Precision of the index, about 153 x 153 m cells.
+     */
+    static final int PRECISION = 7;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    static String encode(final double latitude, final double longitude, final int precision) {
+        double minLatitude = -90;
+        double maxLatitude = 90;
+        double minLongitude = -180;
+        double maxLongitude = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int character = 0;
+        while (hash.length() < precision) {
+            if (evenBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLongitude = middle;
+                } else {
+                    character <<= 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLatitude = middle;
+                } else {
+                    character <<= 1;
+                    maxLatitude = middle;
+                }
+            }
+            evenBit = !evenBit;
+            if (++bit == 5) {
+                hash.append(BASE32[character]);
+                bit = 0;
+                character = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Returns the cells of the finest precision, up to {@code maxPrecision}, at which no more than
+     * {@code maxCells} cells cover the box. Boxes crossing the antimeridian are not supported.
+     */
+    static SortedSet<String> coveringCells(final double minLatitude, final double minLongitude,
+                                           final double maxLatitude, final double maxLongitude,
+                                           final int maxPrecision, final int maxCells) {
+        int precision = 1;
+        while (precision < maxPrecision
+                && cellCount(minLatitude, minLongitude, maxLatitude, maxLongitude, precision + 1) <= maxCells) {
+            precision++;
+        }
+
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+        long firstRow = row(minLatitude, cellHeight);
+        long lastRow = row(maxLatitude, cellHeight);
+        long firstColumn = column(minLongitude, cellWidth);
+        long lastColumn = column(maxLongitude, cellWidth);
+
+        SortedSet<String> cells = new TreeSet<>();
+        for (long row = firstRow; row <= lastRow; row++) {
+            double latitude = Math.min(90, -90 + (row + 0.5) * cellHeight);
+            for (long column = firstColumn; column <= lastColumn; column++) {
+                double longitude = Math.min(180, -180 + (column + 0.5) * cellWidth);
+                cells.add(encode(latitude, longitude, precision));
+            }
+        }
+        return cells;
+    }
+
+    private static long cellCount(final double minLatitude, final double minLongitude, final double maxLatitude,
+                                  final double maxLongitude, final int precision) {
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+        return (row(maxLatitude, cellHeight) - row(minLatitude, cellHeight) + 1)
+                * (column(maxLongitude, cellWidth) - column(minLongitude, cellWidth) + 1);
+    }
+
+    private static double cellHeight(final int precision) {
+        return 180 / Math.pow(2, 5 * precision / 2);
+    }
+
+    private static double cellWidth(final int precision) {
+        return 360 / Math.pow(2, (5 * precision + 1) / 2);
+    }
+
+    private static long row(final double latitude, final double cellHeight) {
+        long rows = Math.round(180 / cellHeight);
+        return Math.min(rows - 1, (long) Math.floor((latitude + 90) / cellHeight));
+    }
+
+    private static long column(final double longitude, final double cellWidth) {
+        long columns = Math.round(360 / cellWidth);
+        return Math.min(columns - 1, (long) Math.floor((longitude + 180) / cellWidth));
+    }
+}
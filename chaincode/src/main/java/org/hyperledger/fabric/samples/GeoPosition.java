@@ -0,0 +1,100 @@
+package org.hyperledger.fabric.samples;
+
+import java.nio.ByteBuffer;
+
+/**
+ * WGS84 latitude/longitude in decimal degrees, parsed from the {@code "lat,lon"} gps positions of the legs.
+ */
+final class GeoPosition {
+
+    private static final int BYTES = 2 * Double.BYTES;
+
+    /**
+     * Mean radius of the earth in meters, as used by the haversine distance.
+     */
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    private final double latitude;
+    private final double longitude;
+
+    GeoPosition(final double latitude, final double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * @return the position, or null if the text is not a {@code "lat,lon"} pair within the valid ranges
+     */
+    static GeoPosition parse(final String gpsPosition) {
+        if (gpsPosition == null) {
+            return null;
+        }
+        int separator = gpsPosition.indexOf(',');
+        if (separator < 0 || gpsPosition.indexOf(',', separator + 1) >= 0) {
+            return null;
+        }
+        try {
+            double latitude = Double.parseDouble(gpsPosition.substring(0, separator).trim());
+            double longitude = Double.parseDouble(gpsPosition.substring(separator + 1).trim());
+            return isValid(latitude, longitude) ? new GeoPosition(latitude, longitude) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static boolean isValid(final double latitude, final double longitude) {
+        // also rejects NaN
+        return latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180;
+    }
+
+    /**
+     * @return the position as stored in the value of an index entry
+     */
+    byte[] toBytes() {
+        return ByteBuffer.allocate(BYTES).putDouble(latitude).putDouble(longitude).array();
+    }
+
+    static GeoPosition fromBytes(final byte[] value) {
+        if (value.length != BYTES) {
+            throw new IllegalArgumentException("Expected " + BYTES + " bytes but found " + value.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        return new GeoPosition(buffer.getDouble(), buffer.getDouble());
+    }
+
+    double getLatitude() {
+        return latitude;
+    }
+
+    double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * The distance is stored in the route summaries, so it has to be the same on every peer: it uses
+     * {@link StrictMath}, whose results do not depend on the JVM or the processor, where {@link Math} may differ in
+     * the last bit.
+     *
+     * @return the great-circle (haversine) distance to the other position, in meters
+     */
+    double distanceMeters(final GeoPosition other) {
+        double latitude1 = StrictMath.toRadians(latitude);
+        double latitude2 = StrictMath.toRadians(other.latitude);
+        double sinLatitude = StrictMath.sin((latitude2 - latitude1) / 2);
+        double sinLongitude = StrictMath.sin(StrictMath.toRadians(other.longitude - longitude) / 2);
+        double a = sinLatitude * sinLatitude
+                + StrictMath.cos(latitude1) * StrictMath.cos(latitude2) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS_METERS * StrictMath.asin(StrictMath.min(1, StrictMath.sqrt(a)));
+    }
+
+    boolean isInside(final double minLatitude, final double minLongitude, final double maxLatitude,
+                     final double maxLongitude) {
+        return latitude >= minLatitude && latitude <= maxLatitude
+                && longitude >= minLongitude && longitude <= maxLongitude;
+    }
+
+    @Override
+    public String toString() {
+        return latitude + "," + longitude;
+    }
+}
@@ -0,0 +1,170 @@
+package org.hyperledger.fabric.samples;
+
+/**
+ * Minimal streaming JSON writer used to build transaction responses.
+ * <p>
+ * Responses are appended token by token into one buffer per chaincode thread that is reused from transaction to
+ * transaction, instead of collecting intermediate lists and strings. The caller is responsible for a well formed
+ * sequence of calls; only the separators are handled here.
+ */
+final class JsonWriter {
+
+    /**
+     * Buffers that grew beyond this size are dropped after use rather than retained by the thread.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<JsonWriter> WRITERS = ThreadLocal.withInitial(JsonWriter::new);
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+    private boolean separate;
+
+    private JsonWriter() {
+    }
+
+    /**
+     * Returns the empty writer of the current thread.
+     */
+    static JsonWriter acquire() {
+        JsonWriter writer = WRITERS.get();
+        if (writer.buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            writer.buffer = new StringBuilder(INITIAL_CAPACITY);
+        }
+        writer.buffer.setLength(0);
+        writer.separate = false;
+        return writer;
+    }
+
+    JsonWriter beginObject() {
+        separator();
+        buffer.append('{');
+        separate = false;
+        return this;
+    }
+
+    JsonWriter endObject() {
+        buffer.append('}');
+        separate = true;
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        separator();
+        buffer.append('[');
+        separate = false;
+        return this;
+    }
+
+    JsonWriter endArray() {
+        buffer.append(']');
+        separate = true;
+        return this;
+    }
+
+    JsonWriter name(final String name) {
+        separator();
+        string(name);
+        buffer.append(':');
+        separate = false;
+        return this;
+    }
+
+    JsonWriter value(final String value) {
+        separator();
+        if (value == null) {
+            buffer.append("null");
+        } else {
+            string(value);
+        }
+        separate = true;
+        return this;
+    }
+
+    JsonWriter value(final long value) {
+        separator();
+        buffer.append(value);
+        separate = true;
+        return this;
+    }
+
+    JsonWriter value(final double value) {
+        separator();
+        buffer.append(value);
+        separate = true;
+        return this;
+    }
+
+    JsonWriter value(final boolean value) {
+        separator();
+        buffer.append(value);
+        separate = true;
+        return this;
+    }
+
+    JsonWriter nullValue() {
+        separator();
+        buffer.append("null");
+        separate = true;
+        return this;
+    }
+
+    /**
+     * Appends an already encoded JSON value, e.g. a record as it is stored on the ledger.
+     */
+    JsonWriter rawValue(final String json) {
+        separator();
+        buffer.append(json);
+        separate = true;
+        return this;
+    }
+
+    int length() {
+        return buffer.length();
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+
+    private void separator() {
+        if (separate) {
+            buffer.append(',');
+        }
+    }
+
+    private void string(final String value) {
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    buffer.append("\\\"");
+                    break;
+                case '\\':
+                    buffer.append("\\\\");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        buffer.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        buffer.append(c);
+                    }
+            }
+        }
+        buffer.append('"');
+    }
+}
@@ -0,0 +1,20 @@
+package org.hyperledger.fabric.samples;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a transaction of {@link BasilContract} that only the owner of the plant may submit. The check runs before the
+ * transaction body, see {@link BasilAuthorizer}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface OwnerOnly {
+
+    /**
+     * @return the position of the qr among the transaction arguments
+     */
+    int qrArgument() default 0;
+}
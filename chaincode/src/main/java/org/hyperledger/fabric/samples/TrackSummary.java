@@ -0,0 +1,164 @@
+package org.hyperledger.fabric.samples;
+
+import com.owlike.genson.annotation.JsonProperty;
+import org.hyperledger.fabric.contract.annotation.DataType;
+import org.hyperledger.fabric.contract.annotation.Property;
+
+import java.util.Objects;
+
+/**
+ * Running aggregates of the route of a plant up to one of its legs, {@code lastLegKey}, extended with the legs after
+ * it instead of replaying the route.
+ * <p>
+ * A plant moves when a leg has another position than the one before; the time between two moves is a dwell, the
+ * longest of which is kept. Timestamps are epoch seconds.
+ */
+@DataType()
+public final class TrackSummary {
+
+    @Property()
+    private String qr;
+
+    @Property()
+    private long legCount;
+
+    @Property()
+    private double distanceMeters;
+
+    @Property()
+    private long firstTimestamp;
+
+    @Property()
+    private long lastTimestamp;
+
+    @Property()
+    private long lastMoveTimestamp;
+
+    @Property()
+    private long maxDwellSeconds;
+
+    @Property()
+    private String lastPosition;
+
+    @Property()
+    private String lastLegKey;
+
+    public TrackSummary(@JsonProperty("qr") final String qr, @JsonProperty("legCount") final long legCount,
+                        @JsonProperty("distanceMeters") final double distanceMeters,
+                        @JsonProperty("firstTimestamp") final long firstTimestamp,
+                        @JsonProperty("lastTimestamp") final long lastTimestamp,
+                        @JsonProperty("lastMoveTimestamp") final long lastMoveTimestamp,
+                        @JsonProperty("maxDwellSeconds") final long maxDwellSeconds,
+                        @JsonProperty("lastPosition") final String lastPosition,
+                        @JsonProperty("lastLegKey") final String lastLegKey) {
+        this.qr = qr;
+        this.legCount = legCount;
+        this.distanceMeters = distanceMeters;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.lastMoveTimestamp = lastMoveTimestamp;
+        this.maxDwellSeconds = maxDwellSeconds;
+        this.lastPosition = lastPosition;
+        this.lastLegKey = lastLegKey;
+    }
+
+    /**
+     * @return the summary of a route made of the leg alone
+     */
+    static TrackSummary start(final String qr, final BasilLeg basilLeg) {
+        long timestamp = basilLeg.getTimestamp();
+        return new TrackSummary(qr, 1, 0, timestamp, timestamp, timestamp, 0, basilLeg.getGpsPosition(),
+                basilLeg.getId());
+    }
+
+    /**
+     * Extends the route with a leg newer than the last one. Legs without a valid position count as legs but not as
+     * moves.
+     */
+    void addLeg(final BasilLeg basilLeg) {
+        long timestamp = basilLeg.getTimestamp();
+        GeoPosition from = GeoPosition.parse(lastPosition);
+        GeoPosition to = GeoPosition.parse(basilLeg.getGpsPosition());
+        legCount++;
+        lastLegKey = basilLeg.getId();
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+        if (to == null) {
+            return;
+        }
+        double meters = from == null ? 0 : from.distanceMeters(to);
+        if (from == null || meters > 0) {
+            maxDwellSeconds = Math.max(maxDwellSeconds, timestamp - lastMoveTimestamp);
+            lastMoveTimestamp = timestamp;
+        }
+        distanceMeters += meters;
+        lastPosition = basilLeg.getGpsPosition();
+    }
+
+    public String getQr() {
+        return qr;
+    }
+
+    public long getLegCount() {
+        return legCount;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public long getLastMoveTimestamp() {
+        return lastMoveTimestamp;
+    }
+
+    public long getMaxDwellSeconds() {
+        return maxDwellSeconds;
+    }
+
+    public String getLastPosition() {
+        return lastPosition;
+    }
+
+    /**
+     * @return the key of the last leg summed up, the composite key of the leg or, for legs that predate those, its
+     * simple key
+     */
+    public String getLastLegKey() {
+        return lastLegKey;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if ((obj == null) || (getClass() != obj.getClass())) {
+            return false;
+        }
+        TrackSummary other = (TrackSummary) obj;
+        return legCount == other.legCount && Double.compare(distanceMeters, other.distanceMeters) == 0
+                && firstTimestamp == other.firstTimestamp && lastTimestamp == other.lastTimestamp
+                && lastMoveTimestamp == other.lastMoveTimestamp && maxDwellSeconds == other.maxDwellSeconds
+                && Objects.equals(qr, other.qr) && Objects.equals(lastPosition, other.lastPosition)
+                && Objects.equals(lastLegKey, other.lastLegKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(qr, legCount, distanceMeters, firstTimestamp, lastTimestamp, lastMoveTimestamp,
+                maxDwellSeconds, lastPosition, lastLegKey);
+    }
+
+    @Override
+    public String toString() {
+        return " { Qr=" + qr + ", Legs=" + legCount + ", Distance=" + distanceMeters + "m, First=" + firstTimestamp
+                + ", Last=" + lastTimestamp + ", Max Dwell=" + maxDwellSeconds + "s }";
+    }
+}